@@ -0,0 +1,61 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import static com.thoughtworks.mingleconnector.Maybe.*;
+
+import java.util.Date;
+
+// An issue with every field filled in, as a typical support ticket would have.
+class BenchmarkIssue implements Issue {
+    private final String project, key, description;
+    private final Date created = new Date(), dueDate = new Date();
+
+    public BenchmarkIssue(String project, int number, int descriptionLength) {
+        this.project = project;
+        this.key = project + "-" + number;
+        this.description = text(descriptionLength);
+    }
+
+    public String key() { return key; }
+    public String type() { return "Bug"; }
+    public String summary() { return "Search results are empty when the query contains an ampersand"; }
+    public String description() { return description; }
+    public String url() { return "http://jira.example.com/browse/" + key; }
+    public String project() { return project; }
+    public void mingleUrl(String url) {}
+    public void addMingleUrl(String urls) {}
+
+    public <T> Maybe<T> field(Field<T> field) {
+        if (field == Field.ASSIGNEE) return (Maybe<T>) definitely("Alice Anderson");
+        if (field == Field.REPORTER) return (Maybe<T>) definitely("Bob Brown");
+        if (field == Field.PROJECT) return (Maybe<T>) definitely("Customer Support");
+        if (field == Field.KEY) return (Maybe<T>) definitely(key);
+        if (field == Field.CREATED) return (Maybe<T>) definitely(created);
+        if (field == Field.DUE_DATE) return (Maybe<T>) definitely(dueDate);
+        if (field == Field.PRIORITY) return (Maybe<T>) definitely("Major");
+        throw new RuntimeException("Unknown field " + field);
+    }
+
+    // Prose with the punctuation, line breaks and accented letters that need
+    // escaping when the description is form encoded.
+    static String text(int length) {
+        String sentence = "Steps: open \"Search\", type a & b = c, press Enter; caf\u00e9 100% broken.\n";
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) text.append(sentence);
+        text.setLength(length);
+        return text.toString();
+    }
+}
@@ -0,0 +1,66 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Builds cards with every property mapped, without sending them anywhere.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CardFactoryBenchmark {
+    @Param({"200", "20000"})
+    public int descriptionLength;
+
+    private CardFactory factory;
+    private Issue issue;
+
+    @Setup public void setUp() {
+        Mingle.API api = new Mingle.API.Blocking() {
+                public String createCard(String server, String project, String type, String name,
+                                         String description, Map properties) {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        final Mingle.Project project = new Mingle.Project(api, "http://mingle.example.com", "support");
+        ProjectMap projectMap = new ProjectMap() {
+                public List<Mingle.Project> get(String jiraProject) {
+                    return Collections.singletonList(project);
+                }
+            };
+        factory = new CardFactory(Mapping.parse("Bug=>Defect, Task=>Story"),
+                                  Mapping.parse("Project=>Tool, Assignee=>Support Owner, " +
+                                                "Reporter=>Support Reporter, " +
+                                                "Created=>Issue Created, Due Date=>Due Date, " +
+                                                "Priority=>Priority"),
+                                  projectMap,
+                                  Mapping.parse("Status=>New, Iteration=>Backlog"),
+                                  Mapping.parse("Major=>Must, Minor=>Should, Trivial=>Could"),
+                                  new Log4JLogger());
+        issue = new BenchmarkIssue("SUP", 1234, descriptionLength);
+    }
+
+    @Benchmark public List<Mingle.Project.Card> createCards() {
+        return factory.createCards(issue);
+    }
+}
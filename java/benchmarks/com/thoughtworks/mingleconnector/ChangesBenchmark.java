@@ -0,0 +1,55 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.ofbiz.core.entity.GenericEntity;
+
+import com.atlassian.jira.event.issue.IssueEvent;
+
+// Finds the new status in change logs where many fields changed at once, with
+// the status change last, as happens when a transition screen edits the issue.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChangesBenchmark {
+    @Param({"1", "20", "200"})
+    public int changes;
+
+    private IssueEvent withStatus, withoutStatus;
+
+    @Setup public void setUp() {
+        List<GenericEntity> items = new ArrayList<GenericEntity>();
+        for (int i = 1; i < changes; i++) items.add(new GenericEntity("customfield_" + i, "value " + i));
+        withoutStatus = new IssueEvent(null, new ArrayList<GenericEntity>(items));
+        items.add(new GenericEntity("Status", "In Development"));
+        withStatus = new IssueEvent(null, items);
+    }
+
+    @Benchmark public String statusChanged() {
+        return new Jira.Changes(withStatus).status();
+    }
+
+    @Benchmark public String statusUnchanged() {
+        return new Jira.Changes(withoutStatus).status();
+    }
+}
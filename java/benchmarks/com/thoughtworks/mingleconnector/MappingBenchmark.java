@@ -0,0 +1,61 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Parsing happens once per configuration, lookups several times per event.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MappingBenchmark {
+    @Param({"5", "50", "500"})
+    public int entries;
+
+    private String definition;
+    private Mapping mapping;
+    private String[] keys;
+    private int next;
+
+    @Setup public void setUp() {
+        StringBuilder definition = new StringBuilder();
+        keys = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            if (i > 0) definition.append(", ");
+            definition.append("PROJ").append(i).append("=>mingle-project-").append(i);
+            keys[i] = (i % 2 == 0 ? "proj" : "Proj") + i;
+        }
+        this.definition = definition.toString();
+        this.mapping = Mapping.parse(this.definition);
+    }
+
+    @Benchmark public Mapping parse() {
+        return Mapping.parse(definition);
+    }
+
+    @Benchmark public Maybe<String> getPresent() {
+        next = (next + 1) % keys.length;
+        return mapping.get(keys[next]);
+    }
+
+    @Benchmark public Maybe<String> getMissing() {
+        return mapping.get("UNKNOWN");
+    }
+}
@@ -0,0 +1,72 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Turns a card into request parameters and form encodes them, as happens for
+// every card sent to Mingle.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WebAPIBenchmark {
+    @Param({"200", "20000"})
+    public int descriptionLength;
+
+    private String description;
+    private Map<String, String> properties;
+    private List<Web.Param> params;
+
+    @Setup public void setUp() {
+        description = BenchmarkIssue.text(descriptionLength);
+        properties = new LinkedHashMap<String, String>();
+        properties.put("JIRA issue", "SUP-1234");
+        properties.put("Tool", "Customer Support");
+        properties.put("Support Owner", "Alice Anderson");
+        properties.put("Support Reporter", "Bob Brown");
+        properties.put("Issue Created", "18 Oct 2011");
+        properties.put("Priority", "Must");
+        params = WebAPI.paramsFor("Defect", "Search results are empty", description, properties);
+    }
+
+    @Benchmark public List<Web.Param> paramsFor() {
+        return WebAPI.paramsFor("Defect", "Search results are empty", description, properties);
+    }
+
+    @Benchmark public long encode(Blackhole blackhole) throws IOException {
+        FormEntity entity = new FormEntity(params);
+        entity.writeRequest(new Sink(blackhole));
+        return entity.getContentLength();
+    }
+
+    private static class Sink extends OutputStream {
+        private final Blackhole blackhole;
+        public Sink(Blackhole blackhole) { this.blackhole = blackhole; }
+
+        public void write(int b) { blackhole.consume(b); }
+        public void write(byte[] bytes, int offset, int length) { blackhole.consume(bytes); }
+    }
+}
@@ -0,0 +1,48 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Decides whether an event is a handover, which happens for every transition
+// of every issue in a mapped project.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WorkflowBenchmark {
+    private final Workflow workflow =
+        new Workflow(Mapping.parse("SUP=>In Development, OPS=>Ready for Dev, WEB=>Accepted"));
+    private final Issue issue = new BenchmarkIssue("SUP", 1234, 200);
+    private final Event.Changes handover = status("In Development"), other = status("Resolved");
+
+    @Benchmark public boolean handover() {
+        return workflow.isPassToDevelopment(handover, issue);
+    }
+
+    @Benchmark public boolean otherTransition() {
+        return workflow.isPassToDevelopment(other, issue);
+    }
+
+    private static Event.Changes status(final String status) {
+        return new Event.Changes() {
+                public String status() { return status; }
+            };
+    }
+}
@@ -14,10 +14,19 @@
 // 
 package com.atlassian.jira;
 
+import java.sql.Timestamp;
+
 import com.atlassian.jira.config.properties.ApplicationProperties;
 import com.atlassian.jira.issue.CustomFieldManager;
 import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
 import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.issuetype.IssueType;
+import com.atlassian.jira.issue.priority.Priority;
+import com.atlassian.jira.issue.status.Status;
+import com.atlassian.jira.project.Project;
+import com.atlassian.jira.project.ProjectManager;
+import com.opensymphony.user.User;
 import com.thoughtworks.mingleconnector.JiraSimulator;
 
 public class ComponentManager {
@@ -35,6 +44,7 @@ public class ComponentManager {
         return new CustomFieldManager() {
             public CustomField getCustomFieldObjectByName(final String name) {
                 return new CustomField() {
+                    public Object getValue(Issue issue) { return null; }
                     public void createValue(Issue issue, Object value) {
                         jira.updateProperty(issue.getKey(), name, value);
                     }
@@ -43,6 +53,32 @@ public class ComponentManager {
         };
     }
 
+    public IssueManager getIssueManager() {
+        return new IssueManager() {
+            public Issue getIssueObject(final String key) {
+                return new Issue() {
+                    public String getKey() { return key; }
+                    public IssueType getIssueTypeObject() { return null; }
+                    public String getSummary() { return null; }
+                    public String getDescription() { return null; }
+                    public Timestamp getCreated() { return null; }
+                    public Timestamp getDueDate() { return null; }
+                    public Project getProjectObject() { return null; }
+                    public Priority getPriorityObject() { return null; }
+                    public Status getStatusObject() { return null; }
+                    public User getAssignee() { return null; }
+                    public User getReporter() { return null; }
+                };
+            }
+        };
+    }
+
+    public ProjectManager getProjectManager() {
+        return new ProjectManager() {
+            public Project getProjectObjByKey(String key) { return null; }
+        };
+    }
+
     public ApplicationProperties getApplicationProperties() {
         return new ApplicationProperties() {
             public String getString(String name) {
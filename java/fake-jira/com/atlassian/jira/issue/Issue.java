@@ -19,6 +19,7 @@ import java.sql.Timestamp;
 import com.atlassian.jira.issue.issuetype.IssueType;
 import com.atlassian.jira.project.Project;
 import com.atlassian.jira.issue.priority.Priority;
+import com.atlassian.jira.issue.status.Status;
 import com.opensymphony.user.User;
 
 public interface Issue {
@@ -30,6 +31,7 @@ public interface Issue {
     public Timestamp getDueDate();
     public Project getProjectObject();
     public Priority getPriorityObject();
+    public Status getStatusObject();
     public User getAssignee();
     public User getReporter();
 }
@@ -17,5 +17,6 @@ package com.atlassian.jira.issue.fields;
 import com.atlassian.jira.issue.Issue;
 
 public interface CustomField {
+    public Object getValue(Issue issue);
     public void createValue(Issue issue, Object value);
 }
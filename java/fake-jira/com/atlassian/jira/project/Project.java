@@ -17,4 +17,5 @@ package com.atlassian.jira.project;
 public interface Project {
     String getKey();
     String getName();
+    Long getCounter();
 }
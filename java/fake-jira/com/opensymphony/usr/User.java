@@ -19,6 +19,9 @@ public class User {
     public User(String name) {
         this.name = name;
     }
+    public String getName() {
+        return name;
+    }
     public String getFullName() {
         return name;
     }
@@ -0,0 +1,299 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.InetSocketAddress;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.atlassian.jira.ComponentManager;
+import com.atlassian.jira.event.issue.IssueEvent;
+import com.atlassian.jira.issue.issuetype.IssueType;
+import com.atlassian.jira.issue.issuetype.IssueTypeImpl;
+import com.atlassian.jira.issue.priority.Priority;
+import com.atlassian.jira.issue.status.Status;
+import com.atlassian.jira.project.Project;
+import com.opensymphony.user.User;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.ofbiz.core.entity.GenericEntity;
+
+// Hands generated issues over to Mingle from many threads at once, through the
+// listener and fake-jira, against a Mingle stub in the same process, and
+// reports how many handovers a second one JIRA node can sustain.
+//
+//     LoadHarness [threads [events [mingle-latency-ms [listener-property=value ...]]]]
+//
+// Latency is measured from the JIRA transition until the card's URL is
+// written back to the issue, so it covers asynchronous dispatch and batching
+// as well.
+public class LoadHarness {
+    private static final String STATUS = "In Development";
+    private static final long TIMEOUT_MINUTES = 10;
+    private static final int WARM_UP = 1000;
+    private static final String WARM = "WARM";
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int events = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        long mingleLatency = args.length > 2 ? Long.parseLong(args[2]) : 0;
+
+        MingleStub mingle = new MingleStub(mingleLatency);
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Config.Property.MINGLE.toString(), mingle.url());
+        params.put(Config.Property.PROJECTS.toString(), "LOAD=>load, " + WARM + "=>warm");
+        params.put(Config.Property.HANDOVER_STATUSES.toString(),
+                   "LOAD=>" + STATUS + ", " + WARM + "=>" + STATUS);
+        params.put(Config.Property.USER.toString(), "connector");
+        params.put(Config.Property.PASSWORD.toString(), "password");
+        params.put(Config.Property.PROPERTIES.toString(),
+                   "Project=>Tool, Assignee=>Support Owner, Reporter=>Support Reporter, " +
+                   "Created=>Issue Created, Due Date=>Due Date, Priority=>Priority");
+        params.put(Config.Property.PRIORITIES.toString(), "Major=>High, Minor=>Low");
+        for (int i = 3; i < args.length; i++) {
+            int equals = args[i].indexOf('=');
+            params.put(args[i].substring(0, equals), args[i].substring(equals + 1));
+        }
+
+        LoadHarness harness = new LoadHarness(params, events);
+        try {
+            harness.run(threads);
+        } finally {
+            mingle.stop();
+        }
+        harness.report(threads, mingle.cards() - harness.warmCards());
+        System.exit(0);
+    }
+
+    private final Listener listener = new Listener();
+    private final int events;
+    private final Map<String, Long> started = new ConcurrentHashMap<String, Long>();
+    private final Metrics.Histogram latency = new Metrics.Histogram();
+    private final CountDownLatch completed, warmed = new CountDownLatch(WARM_UP);
+    private long elapsedNanos, peakHeap, gcCount, gcMillis;
+
+    public LoadHarness(Map<String, String> params, int events) {
+        this.events = events;
+        this.completed = new CountDownLatch(events);
+        ComponentManager.jira(new JiraSimulator() {
+                public void updateProperty(String issueKey, String propertyName, Object value) {
+                    if (issueKey.startsWith(WARM + "-")) {
+                        warmed.countDown();
+                        return;
+                    }
+                    Long start = started.remove(issueKey);
+                    if (start == null) return;
+                    latency.record((System.nanoTime() - start) / 1000);
+                    completed.countDown();
+                }
+
+                public String baseURL() { return "http://jira.example.com"; }
+            });
+        listener.init(params);
+    }
+
+    public void run(int threads) throws InterruptedException {
+        // Warm up on a separate project that is handed over to the same stub, so
+        // that class loading, JIT compilation of the post path and connection
+        // setup are not counted. Its issues are not timed.
+        for (int i = 0; i < WARM_UP; i++) handover(new GeneratedIssue(WARM, i), false);
+        warmed.await(TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) pool.resetPeakUsage();
+        long gcCountBefore = gcCount(), gcMillisBefore = gcMillis();
+
+        final AtomicInteger next = new AtomicInteger();
+        List<Thread> workers = new ArrayList<Thread>();
+        long start = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread("load-" + i) {
+                    public void run() {
+                        for (int n = next.getAndIncrement(); n < events; n = next.getAndIncrement()) {
+                            handover(new GeneratedIssue("LOAD", n), true);
+                        }
+                    }
+                };
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) worker.join();
+        completed.await(TIMEOUT_MINUTES, TimeUnit.MINUTES);
+        elapsedNanos = System.nanoTime() - start;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peakHeap += pool.getPeakUsage().getUsed();
+        }
+        gcCount = gcCount() - gcCountBefore;
+        gcMillis = gcMillis() - gcMillisBefore;
+    }
+
+    private void handover(GeneratedIssue issue, boolean timed) {
+        List<GenericEntity> changes = Collections.singletonList(new GenericEntity("status", STATUS));
+        if (timed) started.put(issue.getKey(), System.nanoTime());
+        listener.workflowEvent(new IssueEvent(issue, changes));
+    }
+
+    public int warmCards() {
+        return WARM_UP - (int) warmed.getCount();
+    }
+
+    public void report(int threads, int cards) {
+        long done = events - completed.getCount();
+        double seconds = elapsedNanos / 1e9;
+        Runtime runtime = Runtime.getRuntime();
+        System.out.println("Threads:            " + threads);
+        System.out.println("Handovers:          " + done + " of " + events + " completed, " +
+                           cards + " cards received by Mingle");
+        System.out.printf("Elapsed:            %.2f s%n", seconds);
+        System.out.printf("Throughput:         %.1f events/s%n", done / seconds);
+        System.out.printf("Latency (ms):       p50 %.2f, p99 %.2f, p999 %.2f, max %.2f%n",
+                          latency.percentile(0.5) / 1000.0, latency.percentile(0.99) / 1000.0,
+                          latency.percentile(0.999) / 1000.0, latency.max() / 1000.0);
+        System.out.printf("Heap (MB):          peak %.1f, used %.1f, max %.1f%n",
+                          peakHeap / 1e6, (runtime.totalMemory() - runtime.freeMemory()) / 1e6,
+                          runtime.maxMemory() / 1e6);
+        System.out.println("Garbage collection: " + gcCount + " collections, " + gcMillis + " ms");
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static class GeneratedIssue implements com.atlassian.jira.issue.Issue {
+        private static final IssueType BUG = new IssueTypeImpl("Bug");
+        private static final User ALICE = new User("Alice Anderson"), BOB = new User("Bob Brown");
+        private static final String DESCRIPTION =
+            "Steps: open \"Search\", type a & b = c and press Enter.\nNothing is found. ";
+        private final String project, key;
+        private final Timestamp created = new Timestamp(System.currentTimeMillis());
+
+        public GeneratedIssue(String project, int number) {
+            this.project = project;
+            this.key = project + "-" + number;
+        }
+
+        public String getKey() { return key; }
+        public IssueType getIssueTypeObject() { return BUG; }
+        public String getSummary() { return "Search fails for " + key; }
+        public String getDescription() { return DESCRIPTION + DESCRIPTION + DESCRIPTION; }
+        public Timestamp getCreated() { return created; }
+        public Timestamp getDueDate() { return null; }
+        public User getAssignee() { return ALICE; }
+        public User getReporter() { return BOB; }
+
+        public Project getProjectObject() {
+            return new Project() {
+                    public String getKey() { return project; }
+                    public String getName() { return "Load " + project; }
+                    public Long getCounter() { return null; }
+                };
+        }
+
+        public Priority getPriorityObject() {
+            return new Priority() {
+                    public String getName() { return "Major"; }
+                };
+        }
+
+        public Status getStatusObject() {
+            return new Status() {
+                    public String getName() { return "Open"; }
+                };
+        }
+    }
+
+    // Accepts every card posted to /api/v2/projects/<project>/cards.xml after
+    // the given delay, the way Mingle answers a successful create.
+    private static class MingleStub implements HttpHandler {
+        private final HttpServer server;
+        private final ExecutorService workers = Executors.newCachedThreadPool();
+        private final AtomicInteger cards = new AtomicInteger();
+        private final long latencyMillis;
+
+        public MingleStub(long latencyMillis) throws IOException {
+            this.latencyMillis = latencyMillis;
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/api/v2/projects/", this);
+            server.setExecutor(workers);
+            server.start();
+        }
+
+        public String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        public int cards() { return cards.get(); }
+
+        public void stop() {
+            server.stop(0);
+            workers.shutdownNow();
+        }
+
+        public void handle(HttpExchange exchange) throws IOException {
+            InputStream body = exchange.getRequestBody();
+            byte[] buffer = new byte[4096];
+            while (body.read(buffer) >= 0);
+            body.close();
+
+            String path = exchange.getRequestURI().getPath();
+            if (!"POST".equals(exchange.getRequestMethod()) || !path.endsWith("/cards.xml")) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            if (latencyMillis > 0) {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            String cardsPath = path.substring(0, path.length() - ".xml".length());
+            exchange.getResponseHeaders().set("Location",
+                                              url() + cardsPath + "/" + cards.incrementAndGet() + ".xml");
+            exchange.sendResponseHeaders(201, -1);
+            exchange.close();
+        }
+    }
+}
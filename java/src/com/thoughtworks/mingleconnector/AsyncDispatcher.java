@@ -0,0 +1,143 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncDispatcher implements Dispatcher {
+    public enum Overflow {
+        BLOCK("block"), CALLER_RUNS("caller-runs"), DISCARD("discard");
+
+        private final String name;
+        private Overflow(String name) { this.name = name; }
+
+        public String toString() { return name; }
+
+        public static Overflow named(String name) {
+            for (Overflow overflow : values()) {
+                if (overflow.name.equalsIgnoreCase(name.trim())) return overflow;
+            }
+            throw new IllegalArgumentException("Unknown overflow policy " + name);
+        }
+
+        public static String names() {
+            return "one of block, caller-runs or discard";
+        }
+    }
+
+    private final Dispatcher dispatcher;
+    private final Logger logger;
+    private final ThreadPoolExecutor executor;
+
+    // Without a dispatcher of its own, events must be dispatched along with the
+    // dispatcher that is to handle them.
+    public AsyncDispatcher(Logger logger, int threads, int queueSize, Overflow overflow,
+                           long timeoutMillis) {
+        this(null, logger, threads, queueSize, overflow, timeoutMillis);
+    }
+
+    public AsyncDispatcher(Dispatcher dispatcher, Logger logger, int threads, int queueSize,
+                           Overflow overflow, long timeoutMillis) {
+        this.dispatcher = dispatcher;
+        this.logger = logger;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                                               new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)),
+                                               new DaemonThreads(),
+                                               rejection(overflow, timeoutMillis));
+    }
+
+    public void dispatch(Event event) {
+        dispatch(event, dispatcher);
+    }
+
+    public void dispatch(Event event, Dispatcher target) {
+        executor.execute(new Job(event.snapshot(), target));
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private RejectedExecutionHandler rejection(Overflow overflow, final long timeoutMillis) {
+        switch (overflow) {
+        case CALLER_RUNS:
+            return new RejectedExecutionHandler() {
+                public void rejectedExecution(Runnable job, ThreadPoolExecutor executor) {
+                    if (!executor.isShutdown()) job.run();
+                }
+            };
+        case DISCARD:
+            return new RejectedExecutionHandler() {
+                public void rejectedExecution(Runnable job, ThreadPoolExecutor executor) {
+                    drop(job);
+                }
+            };
+        default:
+            return new RejectedExecutionHandler() {
+                public void rejectedExecution(Runnable job, ThreadPoolExecutor executor) {
+                    try {
+                        if (!executor.isShutdown() &&
+                            executor.getQueue().offer(job, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                            return;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    drop(job);
+                }
+            };
+        }
+    }
+
+    private void drop(Runnable job) {
+        logger.droppedEvent(((Job) job).event.issue().key());
+    }
+
+    // Runs under the trace of the thread that dispatched it.
+    private class Job implements Runnable {
+        private final Event event;
+        private final Dispatcher target;
+        private final Trace trace = Trace.current();
+        public Job(Event event, Dispatcher target) {
+            this.event = event;
+            this.target = target;
+        }
+
+        public void run() {
+            Trace previous = trace == null ? Trace.current() : trace.enter();
+            try {
+                target.dispatch(event);
+            } catch (RuntimeException e) {
+                logger.failedEvent(event.issue().key(), e);
+            } finally {
+                Trace.resume(previous);
+            }
+        }
+    }
+
+    private static class DaemonThreads implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "mingle-connector-dispatch-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Creates cards for the issues of a JIRA project that were handed over before
+// the project was mapped. Issues are walked in order of their number, a page at
+// a time, so that only one page is ever held in memory, and the cards of each
+// page are created by a fixed number of threads. The last page completed is
+// recorded in a checkpoint file, from which an interrupted run carries on. The
+// checkpoint is removed once every issue has been seen, so a later run starts
+// from the beginning and skips the issues that already have cards.
+public class Backfill {
+    private static final String PREFIX = "backfill-", SUFFIX = ".checkpoint";
+
+    public interface Source {
+        // The highest issue number the project has given out.
+        long lastNumber(String project);
+
+        // The issue with the given number, if there is one, it is in the given
+        // status and it has no Mingle card yet.
+        Maybe<Issue> pending(String project, long number, String status);
+    }
+
+    public interface Handler {
+        void handover(Issue issue);
+    }
+
+    private final Source source;
+    private final Handler handler;
+    private final File directory;
+    private final int threads, pageSize;
+    private final Logger logger;
+
+    public Backfill(Source source, Handler handler, File directory, int threads, int pageSize,
+                    Logger logger) {
+        this.source = source;
+        this.handler = handler;
+        this.directory = directory;
+        this.threads = Math.max(threads, 1);
+        this.pageSize = Math.max(pageSize, 1);
+        this.logger = logger;
+    }
+
+    // Returns a summary of what was done. Stops after the first page in which a
+    // card could not be created, leaving the checkpoint before that page.
+    public String run(final String project, final String status) {
+        File checkpoint = new File(directory, PREFIX + project.toUpperCase() + SUFFIX);
+        long done = read(checkpoint), last = source.lastNumber(project);
+        final AtomicInteger created = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mingle-connector-backfill-" +
+                                               count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        try {
+            while (done < last) {
+                long end = Math.min(done + pageSize, last);
+                List<Future<?>> page = new ArrayList<Future<?>>(pageSize);
+                for (long number = done + 1; number <= end; number++) {
+                    final long issue = number;
+                    page.add(workers.submit(new Runnable() {
+                            public void run() {
+                                Issue pending = source.pending(project, issue, status)
+                                    .force((Issue) null);
+                                if (pending == null) return;
+                                handler.handover(pending);
+                                created.incrementAndGet();
+                            }
+                        }));
+                }
+                RuntimeException failure = await(page);
+                if (failure != null) {
+                    logger.failedBackfill(project, done + 1, end, failure);
+                    return "Created " + created + " cards; stopped at " + project + "-" +
+                        (done + 1) + " to " + project + "-" + end + ": " + failure.getMessage();
+                }
+                done = end;
+                write(checkpoint, done);
+                logger.backfilled(project, done, last, created.get());
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        checkpoint.delete();
+        return "Created " + created + " cards for the " + last + " issues of " + project;
+    }
+
+    private static RuntimeException await(List<Future<?>> page) {
+        RuntimeException failure = null;
+        for (Future<?> future : page) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException
+                        ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return new RuntimeException(e);
+            }
+        }
+        return failure;
+    }
+
+    private static long read(File checkpoint) {
+        if (!checkpoint.exists()) return 0;
+        try {
+            InputStream in = new FileInputStream(checkpoint);
+            try {
+                byte[] bytes = new byte[(int) checkpoint.length()];
+                int read = 0;
+                while (read < bytes.length) {
+                    int n = in.read(bytes, read, bytes.length - read);
+                    if (n < 0) break;
+                    read += n;
+                }
+                return Long.parseLong(new String(bytes, 0, read, "UTF-8").trim());
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read backfill checkpoint " + checkpoint, e);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Backfill checkpoint " + checkpoint + " is corrupt", e);
+        }
+    }
+
+    // Written beside the checkpoint and renamed over it, so that a crash never
+    // leaves half a number behind.
+    private static void write(File checkpoint, long done) {
+        File next = new File(checkpoint.getPath() + ".new");
+        try {
+            FileOutputStream out = new FileOutputStream(next);
+            try {
+                out.write(Long.toString(done).getBytes("UTF-8"));
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write backfill checkpoint " + checkpoint, e);
+        }
+        if (!next.renameTo(checkpoint)) {
+            checkpoint.delete();
+            if (!next.renameTo(checkpoint)) {
+                throw new RuntimeException("Cannot write backfill checkpoint " + checkpoint);
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+// Published over JMX for each pipeline, alongside its metrics, and using the
+// rules it was last configured with. Once a JIRA project has been mapped, an
+// administrator backfills it to create cards for the issues that were already in
+// its handover status. Returns a summary once the run stops.
+public interface BackfillMXBean {
+    String backfill(String jiraProject);
+}
@@ -0,0 +1,204 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Collects the cards being created in each Mingle project for a short while and
+// then sends them one after another from a single thread, so that a bulk
+// transition reuses one connection per project rather than opening one for every
+// card at once. Callers still wait for, and get back, the URL of their own card,
+// unless they create it asynchronously. A caller gives up on a card that has not
+// been sent after the given wait for each full batch ahead of it, and the card
+// is then never sent; once it is being sent, the caller waits for the outcome.
+// Cards still waiting when the batcher is shut down fail rather than being left
+// for callers to wait on.
+public class BatchingAPI implements Mingle.API {
+    private final Mingle.API api;
+    private final long lingerMillis, waitMillis;
+    private final int maxBatch;
+    private final ScheduledExecutorService senders;
+    private final Map<String, Batch> batches = new HashMap<String, Batch>();
+
+    public BatchingAPI(Mingle.API api, long lingerMillis, int maxBatch, int senderThreads,
+                       long waitMillis) {
+        this.api = api;
+        this.lingerMillis = lingerMillis;
+        this.waitMillis = waitMillis;
+        this.maxBatch = Math.max(maxBatch, 1);
+        this.senders = new ScheduledThreadPoolExecutor(Math.max(senderThreads, 1), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mingle-connector-batch-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    public String createCard(String server, String project, String type, String name,
+                             String description, Map properties) {
+        Request request = new Request(server, project, type, name, description, properties);
+        Batch batch = batch(server + " " + project);
+        int batches = batch.add(request) / maxBatch + 1;
+        try {
+            return request.url.join(waitMillis * batches, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // A card must not be created behind the back of a caller told it failed.
+            if (request.url.isDone() || batch.cancel(request)) throw e;
+            return request.url.join();
+        }
+    }
+
+    public Promise<String> createCardAsync(String server, String project, String type, String name,
+                                           String description, Map properties) {
+        Request request = new Request(server, project, type, name, description, properties);
+        batch(server + " " + project).add(request);
+        return request.url;
+    }
+
+    public void shutdown() {
+        senders.shutdown();
+        List<Batch> all;
+        synchronized (this) {
+            all = new ArrayList<Batch>(batches.values());
+        }
+        for (Batch batch : all) {
+            batch.failAll(new RejectedExecutionException("Mingle connector is shutting down"));
+        }
+    }
+
+    private synchronized Batch batch(String key) {
+        Batch batch = batches.get(key);
+        if (batch == null) {
+            batch = new Batch();
+            batches.put(key, batch);
+        }
+        return batch;
+    }
+
+    private class Batch implements Runnable {
+        private final LinkedList<Request> waiting = new LinkedList<Request>();
+        private Request current;
+        private boolean scheduled;
+
+        // Returns how many cards are ahead of this one, counting any being sent.
+        public int add(Request request) {
+            int ahead;
+            synchronized (this) {
+                ahead = waiting.size() + (current == null ? 0 : 1);
+                waiting.add(request);
+                if (scheduled) return ahead;
+                scheduled = true;
+                try {
+                    senders.schedule(this, lingerMillis, TimeUnit.MILLISECONDS);
+                    return ahead;
+                } catch (RejectedExecutionException e) {
+                    scheduled = false;
+                }
+            }
+            failAll(new RejectedExecutionException("Mingle connector is shutting down"));
+            return ahead;
+        }
+
+        // Returns false if the card is already being sent.
+        public synchronized boolean cancel(Request request) {
+            return waiting.remove(request);
+        }
+
+        // Cards are only taken off the queue as they are sent, so that one given up
+        // on can still be cancelled while those ahead of it are being sent.
+        private synchronized Request next() {
+            current = waiting.poll();
+            return current;
+        }
+
+        public void run() {
+            for (int sent = 0; sent < maxBatch; sent++) {
+                Request request = next();
+                if (request == null) break;
+                request.send();
+            }
+            synchronized (this) {
+                current = null;
+                if (waiting.isEmpty()) {
+                    scheduled = false;
+                    return;
+                }
+                try {
+                    senders.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    scheduled = false;
+                }
+            }
+            failAll(new RejectedExecutionException("Mingle connector is shutting down"));
+        }
+
+        public void failAll(RuntimeException e) {
+            for (Request request : take(Integer.MAX_VALUE)) {
+                request.url.fail(e);
+            }
+        }
+
+        private synchronized LinkedList<Request> take(int limit) {
+            LinkedList<Request> taken = new LinkedList<Request>();
+            while (!waiting.isEmpty() && taken.size() < limit) {
+                taken.add(waiting.removeFirst());
+            }
+            return taken;
+        }
+    }
+
+    private class Request {
+        private final String server, project, type, name, description;
+        private final Map properties;
+        private final Promise<String> url = new Promise<String>();
+        private final Trace trace = Trace.current();
+
+        public Request(String server, String project, String type, String name,
+                       String description, Map properties) {
+            this.server = server; this.project = project; this.type = type; this.name = name;
+            this.description = description; this.properties = properties;
+        }
+
+        // Sent under the trace of the card's event, although sent from the batch.
+        public void send() {
+            Trace previous = trace == null ? Trace.current() : trace.enter();
+            try {
+                String created;
+                try {
+                    created = api.createCard(server, project, type, name, description, properties);
+                } catch (RuntimeException e) {
+                    url.fail(e);
+                    return;
+                }
+                url.succeed(created);
+            } finally {
+                Trace.resume(previous);
+            }
+        }
+    }
+}
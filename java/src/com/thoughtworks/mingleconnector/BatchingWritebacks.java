@@ -0,0 +1,192 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Collects the URLs of new cards for a short while and then writes them to their
+// issues from a thread of its own, so that a slow JIRA database or indexer holds
+// up neither the cards being sent to Mingle nor the transitions that caused them.
+// Several URLs for one issue within the window are written together, and a full
+// batch is followed by the next straight away. A write that fails is tried again
+// after twice as long each time, and given up on after the given number of
+// retries. At most maxPending issues wait at once; URLs for any more are dropped
+// and logged rather than letting a stalled JIRA fill the heap.
+public class BatchingWritebacks implements Writebacks {
+    private static final long SHUTDOWN_GRACE_MILLIS = 5000;
+
+    private final Metrics metrics;
+    private final Logger logger;
+    private final long windowMillis;
+    private final int maxBatch, retries, maxPending;
+    private final ScheduledExecutorService writer;
+    private final Map<String, Pending> pending = new LinkedHashMap<String, Pending>();
+    private boolean scheduled, stopped; // guarded by this, as is pending
+
+    public BatchingWritebacks(Metrics metrics, Logger logger, long windowMillis, int maxBatch,
+                              int retries, int maxPending) {
+        this.metrics = metrics;
+        this.logger = logger;
+        this.windowMillis = windowMillis;
+        this.maxBatch = Math.max(maxBatch, 1);
+        this.retries = retries;
+        this.maxPending = Math.max(maxPending, 1);
+        ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mingle-connector-writeback");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.writer = writer;
+    }
+
+    public void mingleUrl(Issue issue, String url) {
+        add(new Pending(issue, url, 0, System.nanoTime()));
+    }
+
+    // Writes whatever is still waiting, once each, before returning, rather than
+    // waiting out the window.
+    public void shutdown() {
+        synchronized (this) {
+            stopped = true;
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(SHUTDOWN_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Pending write : take(Long.MAX_VALUE, Integer.MAX_VALUE)) {
+            try {
+                write.apply();
+            } catch (RuntimeException e) {
+                logger.failedWriteback(write.issue.key(), e);
+            }
+        }
+    }
+
+    // A URL that arrives for an issue that is already waiting is written along
+    // with the earlier ones, which are then due straight away with no retries
+    // used.
+    private void add(Pending write) {
+        synchronized (this) {
+            Pending earlier = pending.remove(write.issue.key());
+            if (earlier != null || pending.size() < maxPending) {
+                pending.put(write.issue.key(), earlier == null ? write : earlier.and(write));
+                schedule(windowMillis);
+                return;
+            }
+        }
+        metrics.droppedWriteback();
+        logger.droppedWriteback(write.issue.key(), write.url);
+    }
+
+    private void schedule(long delayMillis) {
+        if (scheduled || stopped) return;
+        scheduled = true;
+        writer.schedule(new Runnable() {
+                public void run() { flush(); }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        List<Pending> batch = take(System.nanoTime(), maxBatch);
+        for (Pending write : batch) {
+            try {
+                write.apply();
+            } catch (RuntimeException e) {
+                retry(write, e);
+            }
+        }
+        synchronized (this) {
+            scheduled = false;
+            if (!pending.isEmpty()) schedule(batch.size() == maxBatch ? 0 : windowMillis);
+        }
+    }
+
+    private void retry(Pending write, RuntimeException e) {
+        if (write.attempts >= retries) {
+            logger.failedWriteback(write.issue.key(), e);
+            return;
+        }
+        long delayMillis = windowMillis << write.attempts;
+        logger.retryingWriteback(write.issue.key(), write.attempts + 1, delayMillis);
+        add(new Pending(write.issue, write.url, write.attempts + 1,
+                        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis),
+                        write.trace));
+    }
+
+    // Up to the given number of the writes that are due by the given time, oldest
+    // first.
+    private synchronized List<Pending> take(long now, int limit) {
+        List<Pending> taken = new ArrayList<Pending>();
+        for (Iterator<Pending> writes = pending.values().iterator();
+             writes.hasNext() && taken.size() < limit; ) {
+            Pending write = writes.next();
+            if (write.due - now > 0) continue;
+            writes.remove();
+            taken.add(write);
+        }
+        return taken;
+    }
+
+    private class Pending {
+        private final Issue issue;
+        private final String url;
+        private final int attempts;
+        private final long due;
+        private final Trace trace;
+
+        public Pending(Issue issue, String url, int attempts, long due) {
+            this(issue, url, attempts, due, Trace.current());
+        }
+
+        private Pending(Issue issue, String url, int attempts, long due, Trace trace) {
+            this.issue = issue; this.url = url; this.attempts = attempts; this.due = due;
+            this.trace = trace;
+        }
+
+        public Pending and(Pending later) {
+            if ((" " + url + " ").indexOf(" " + later.url + " ") >= 0) return later.with(url);
+            return later.with(url + " " + later.url);
+        }
+
+        private Pending with(String url) {
+            return new Pending(issue, url, 0, Math.min(due, System.nanoTime()), trace);
+        }
+
+        // Written under the trace of the event that created the latest card.
+        public void apply() {
+            Trace previous = trace == null ? Trace.current() : trace.enter();
+            try {
+                long started = System.nanoTime();
+                issue.addMingleUrl(url);
+                metrics.since(Metrics.Stage.WRITEBACK, started);
+            } finally {
+                Trace.resume(previous);
+            }
+        }
+    }
+}
@@ -19,107 +19,171 @@ import java.util.Date;
 import java.util.ArrayList;
 import java.util.List;
 
+// The property mappings are compiled once, into setters that already know which
+// issue field they read and which card property they write, so that building a
+// card does not need to look anything up by name.
 public class CardFactory {
+    // Checks a card before it is sent, returning it with any names corrected or
+    // throwing if Mingle would not accept it.
+    public interface Validator {
+        Mingle.Project.Card validate(Mingle.Project.Card card);
+
+        public static final Validator NONE = new Validator() {
+                public Mingle.Project.Card validate(Mingle.Project.Card card) { return card; }
+            };
+    }
+
+    private static final ThreadLocal<SimpleDateFormat> DATE_FORMAT =
+        new ThreadLocal<SimpleDateFormat>() {
+            protected SimpleDateFormat initialValue() {
+                return new SimpleDateFormat("dd MMM yyyy");
+            }
+        };
+
     private final Mapping typeMap;
-    private final Mapping propertyMap;
     private final ProjectMap projectMap;
     private final Logger logger;
-    private final List<PropertySetter> properties = new ArrayList<PropertySetter>();
+    private final Metrics metrics;
+    private final Validator validator;
+    private final int descriptionBytes;
+    private final PropertySetter[] properties;
 
     public CardFactory(Mapping typeMap, Mapping propertyMap, ProjectMap projectMap,
                        Mapping initialCardValueMap, Mapping priorityMap, Logger logger) {
+        this(typeMap, propertyMap, projectMap, initialCardValueMap, priorityMap, logger,
+             new Metrics(), Validator.NONE);
+    }
+
+    public CardFactory(Mapping typeMap, Mapping propertyMap, ProjectMap projectMap,
+                       Mapping initialCardValueMap, Mapping priorityMap, Logger logger,
+                       Metrics metrics, Validator validator) {
+        this(typeMap, propertyMap, projectMap, initialCardValueMap, priorityMap, logger, metrics,
+             validator, 0);
+    }
+
+    // Descriptions are cut short to the given number of bytes of UTF-8, or left
+    // whole if it is 0.
+    public CardFactory(Mapping typeMap, Mapping propertyMap, ProjectMap projectMap,
+                       Mapping initialCardValueMap, Mapping priorityMap, Logger logger,
+                       Metrics metrics, Validator validator, int descriptionBytes) {
         this.typeMap = typeMap;
-        this.propertyMap = propertyMap;
         this.projectMap = projectMap;
         this.logger = logger;
+        this.metrics = metrics;
+        this.validator = validator;
+        this.descriptionBytes = descriptionBytes;
 
-        propertyMap.add("Key", "JIRA issue");
-
-        addPropertyMapping("Project", SIMPLE);
-        addPropertyMapping("Key", SIMPLE);
-        addPropertyMapping("Assignee", SIMPLE);
-        addPropertyMapping("Reporter", SIMPLE);
-        addPropertyMapping("Created", DATE);
-        addPropertyMapping("Due Date", DATE);
-        addPropertyMapping("Priority", translation(priorityMap));
+        final List<PropertySetter> properties = new ArrayList<PropertySetter>();
+        addPropertyMapping(properties, propertyMap, "Project");
+        properties.add(new SimpleProperty(Issue.Field.KEY, "JIRA issue"));
+        addPropertyMapping(properties, propertyMap, "Assignee");
+        addPropertyMapping(properties, propertyMap, "Reporter");
+        addDateMapping(properties, propertyMap, "Created");
+        addDateMapping(properties, propertyMap, "Due Date");
+        addTranslationMapping(properties, propertyMap, "Priority", priorityMap);
+        addCorrelationMapping(properties, propertyMap, "Correlation ID");
 
         initialCardValueMap.each(new Mapping.Receiver() {
                 public void receive(String from, String to) {
                     properties.add(new InitialCardValue(from, to));
                 }
             });
+        this.properties = properties.toArray(new PropertySetter[properties.size()]);
     }
 
-    public Mingle.Project.Card createCard(Issue issue) {
-        return new SingleUseFactory(issue).create();
-    }
-
-    private class SingleUseFactory {
-        private final Issue issue;
-        public SingleUseFactory(Issue issue) {
-            this.issue = issue;
+    // One card for each Mingle project the issue's project is mapped to.
+    public List<Mingle.Project.Card> createCards(Issue issue) {
+        List<Mingle.Project> projects = projectMap.get(issue.project());
+        List<Mingle.Project.Card> cards = new ArrayList<Mingle.Project.Card>(projects.size());
+        String type = type(issue), description = description(issue);
+        for (Mingle.Project project : projects) {
+            Mingle.Project.Card card = project.addCard(type, issue.summary(), description);
+            for (PropertySetter setter : properties) {
+                setter.add(issue, card);
+            }
+            cards.add(validator.validate(card));
         }
+        return cards;
+    }
 
-        public Mingle.Project.Card create() {
-            Mingle.Project.Card card = project().addCard(type(), name(), description());
-            addProperties(card);
-            return card;
-        }
+    private String type(Issue issue) {
+        return typeMap.get(issue.type()).force(issue.type());
+    }
 
-        private Mingle.Project project() {
-            return projectMap.get(issue.project());
+    // Built in one buffer of the right size, as the issue's description may be
+    // megabytes long and is otherwise copied for each piece added.
+    private String description(Issue issue) {
+        // Don't put a full stop after the url. There is a Mingle bug
+        // which causes this to be rendered incorrectly.
+        String banner = "This card was created from an issue in JIRA: " + issue.url() + "\n\n";
+        String text = issue.description();
+        int kept = text.length();
+        String note = "\n";
+        if (descriptionBytes > 0 &&
+            fit(text, descriptionBytes - utf8Length(banner) - note.length()) < text.length()) {
+            note = "\n\nThis description was too long for Mingle and has been cut short. " +
+                "Read all of it in JIRA: " + issue.url() + "\n";
+            kept = fit(text, descriptionBytes - utf8Length(banner) - utf8Length(note));
         }
+        return new StringBuilder(banner.length() + kept + note.length())
+            .append(banner).append(text, 0, kept).append(note).toString();
+    }
 
-        private String type() {
-            return typeMap.get(issue.type()).force(issue.type());
+    // The number of characters at the start of the string that take no more
+    // than the given number of bytes of UTF-8, without splitting a surrogate
+    // pair. Stops counting as soon as the bytes run out.
+    private static int fit(String string, int bytes) {
+        int count = 0;
+        for (int i = 0; i < string.length(); i++) {
+            count += utf8Length(string.charAt(i));
+            if (count > bytes) {
+                return i > 0 && Character.isHighSurrogate(string.charAt(i - 1)) ? i - 1 : i;
+            }
         }
+        return string.length();
+    }
 
-        private String name() {
-            return issue.summary();
+    private static int utf8Length(String string) {
+        int count = 0;
+        for (int i = 0; i < string.length(); i++) {
+            count += utf8Length(string.charAt(i));
         }
+        return count;
+    }
 
-        private String description() {
-            // Don't put a full stop after the url. There is a Mingle bug
-            // which causes this to be rendered incorrectly.
-            return "This card was created from an issue in JIRA: "+issue.url()+
-                "\n\n" +
-                issue.description() + "\n";
-        }
+    // Each half of a surrogate pair counts for two of the pair's four bytes.
+    private static int utf8Length(char c) {
+        if (c < 0x80) return 1;
+        if (c < 0x800 || Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) return 2;
+        return 3;
+    }
 
-        private String jiraIssue() {
-            return issue.key();
-        }
+    private static void addPropertyMapping(List<PropertySetter> properties, Mapping propertyMap,
+                                           String field) {
+        String property = propertyMap.get(field).force((String) null);
+        if (property == null) return;
+        properties.add(new SimpleProperty(Issue.Field.<String>named(field), property));
+    }
 
-        private void addProperties(Mingle.Project.Card card) {
-            for (PropertySetter setter : properties) {
-                setter.add(issue, card);
-            }
-        }
+    private static void addDateMapping(List<PropertySetter> properties, Mapping propertyMap,
+                                       String field) {
+        String property = propertyMap.get(field).force((String) null);
+        if (property == null) return;
+        properties.add(new DateProperty(Issue.Field.<Date>named(field), property));
     }
 
-    private void addPropertyMapping(final String field, final Function converter) {
-        propertyMap.get(field).ifValue(new Action<String>() {
-                public void call(String propertyName) {
-                    properties.add(new PropertyMapping(field, propertyName, converter));
-                }
-            });
+    private void addTranslationMapping(List<PropertySetter> properties, Mapping propertyMap,
+                                       String field, Mapping translations) {
+        String property = propertyMap.get(field).force((String) null);
+        if (property == null) return;
+        properties.add(new TranslatedProperty(field, property, translations));
     }
 
-    private static final Function<String, Maybe<String>> SIMPLE =
-        new Function<String, Maybe<String>>() {
-        public Maybe<String> call(String value) { return Maybe.definitely(value); }
-    };
-    private static final Function<Date, Maybe<String>> DATE = new Function<Date, Maybe<String>>() {
-        public Maybe<String> call(Date date) {
-            return Maybe.definitely(new SimpleDateFormat("dd MMM yyyy").format(date));
-        }
-    };
-    private Function<String, Maybe<String>> translation(final Mapping priorityMap) {
-        return new Function<String, Maybe<String>>() {
-            public Maybe<String> call(String value) {
-                return priorityMap.get(value);
-            }
-        };
+    private static void addCorrelationMapping(List<PropertySetter> properties, Mapping propertyMap,
+                                              String field) {
+        String property = propertyMap.get(field).force((String) null);
+        if (property == null) return;
+        properties.add(new CorrelationProperty(property));
     }
 
     private interface PropertySetter {
@@ -137,45 +201,71 @@ public class CardFactory {
         }
     }
 
-    private class PropertyMapping<T> implements PropertySetter {
-        private final String field, property;
-        private final Function<T, Maybe<String>> conversion;
-        public PropertyMapping(String field, String property,
-                               Function<T, Maybe<String>> conversion) {
-            this.field = field; this.property = property; this.conversion = conversion;
+    // The ID of the trace the card is created under, so that the daemon can
+    // follow the event on when the card comes back from Mingle.
+    private static class CorrelationProperty implements PropertySetter {
+        private final String property;
+        public CorrelationProperty(String property) {
+            this.property = property;
         }
 
-        public void add(Issue issue, final Mingle.Project.Card card) {
-            field().of(issue).ifValue(new Action<T>() {
-                    public void call(T raw) {
-                        convert(raw).ifValue(setProperty(card),
-                                             logUnmappable(raw));
-                    }
-                });
+        public void add(Issue issue, Mingle.Project.Card card) {
+            Trace trace = Trace.current();
+            if (trace != null) card.property(property, trace.id());
         }
+    }
 
-        private Issue.Field<T> field() {
-            return Issue.Field.named(field);
+    private static abstract class FieldProperty<T> implements PropertySetter {
+        private final Issue.Field<T> field;
+        protected final String property;
+        public FieldProperty(Issue.Field<T> field, String property) {
+            this.field = field; this.property = property;
         }
 
-        private Maybe<String> convert(T value) {
-            return conversion.call(value);
+        public void add(Issue issue, Mingle.Project.Card card) {
+            T value = field.of(issue).force((T) null);
+            if (value != null) set(value, card);
         }
 
-        private Action<String> setProperty(final Mingle.Project.Card card) {
-            return new Action<String>() {
-                public void call(String converted) {
-                    card.property(property, converted);
-                }
-            };
+        protected abstract void set(T value, Mingle.Project.Card card);
+    }
+
+    private static class SimpleProperty extends FieldProperty<String> {
+        public SimpleProperty(Issue.Field<String> field, String property) {
+            super(field, property);
         }
 
-        private NullaryAction logUnmappable(final T value) {
-            return new NullaryAction() {
-                public void call() {
-                    logger.unmappableValue(field, value);
-                }
-            };
+        protected void set(String value, Mingle.Project.Card card) {
+            card.property(property, value);
+        }
+    }
+
+    private static class DateProperty extends FieldProperty<Date> {
+        public DateProperty(Issue.Field<Date> field, String property) {
+            super(field, property);
+        }
+
+        protected void set(Date value, Mingle.Project.Card card) {
+            card.property(property, DATE_FORMAT.get().format(value));
+        }
+    }
+
+    private class TranslatedProperty extends FieldProperty<String> {
+        private final String fieldName;
+        private final Mapping translations;
+        public TranslatedProperty(String fieldName, String property, Mapping translations) {
+            super(Issue.Field.<String>named(fieldName), property);
+            this.fieldName = fieldName; this.translations = translations;
+        }
+
+        protected void set(String value, Mingle.Project.Card card) {
+            String translated = translations.get(value).force((String) null);
+            if (translated == null) {
+                logger.unmappableValue(fieldName, value);
+                metrics.unmappableValue();
+                return;
+            }
+            card.property(property, translated);
         }
     }
 }
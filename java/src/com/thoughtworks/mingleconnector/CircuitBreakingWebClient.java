@@ -0,0 +1,253 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.net.ConnectException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+
+// Keeps track of how requests to each host have been going. Once too many of the
+// recent ones have failed, or taken too long, requests to that host fail at once
+// for a while instead of waiting on a server that is down. After that a single
+// request is let through to see whether the host has recovered.
+//
+// Only failures that cannot have created a card, namely refused or timed out
+// connections and 503 responses, are retried, after an exponentially growing
+// and randomised delay. Asynchronous posts are not retried, as that would take
+// a thread to wait out the delay. Requests that never left because the client
+// ran out of connections or in-flight room are neither recorded nor retried, and
+// a slow call threshold of 0 means no call counts as slow.
+public class CircuitBreakingWebClient implements Web {
+    public static class CircuitOpenException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public CircuitOpenException(String host) {
+            super("Not sending requests to " + host + " as too many recent requests to it have failed");
+        }
+    }
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final Web wrapped;
+    private final Logger logger;
+    private final int window, minimumCalls;
+    private final double failureRatio;
+    private final long openMillis, slowCallMillis;
+    private final int retries;
+    private final long backoffMillis;
+    private final Random random = new Random();
+    private final Map<String, Circuit> circuits = new HashMap<String, Circuit>();
+
+    public CircuitBreakingWebClient(Web wrapped, Logger logger, int window, int minimumCalls,
+                                    double failureRatio, long openMillis, long slowCallMillis,
+                                    int retries, long backoffMillis) {
+        this.wrapped = wrapped; this.logger = logger;
+        this.window = window; this.minimumCalls = minimumCalls; this.failureRatio = failureRatio;
+        this.openMillis = openMillis; this.slowCallMillis = slowCallMillis;
+        this.retries = retries; this.backoffMillis = backoffMillis;
+    }
+
+    public Response post(String url, List params) {
+        Circuit circuit = circuit(host(url));
+        for (int attempt = 1; ; attempt++) {
+            circuit.acquire();
+            long started = now();
+            Response response;
+            try {
+                response = wrapped.post(url, params);
+            } catch (WebClient.LocalLimitException e) {
+                circuit.release();
+                throw e;
+            } catch (RuntimeException e) {
+                circuit.record(false);
+                if (!retryable(e) || attempt > retries) throw e;
+                backoff(url, attempt);
+                continue;
+            }
+            circuit.record(response.statusCode() < 500 && !slow(started));
+            if (response.statusCode() != 503 || attempt > retries) return response;
+            backoff(url, attempt);
+        }
+    }
+
+    public Promise<Response> postAsync(String url, List params) {
+        final Circuit circuit = circuit(host(url));
+        try {
+            circuit.acquire();
+        } catch (CircuitOpenException e) {
+            return Promise.failed(e);
+        }
+        // Timed from when the post is actually sent, not from when it was queued.
+        final AtomicLong started = new AtomicLong(now());
+        Promise<Response> response = wrapped.postAsync(url, params);
+        response.whenStarted(new Runnable() {
+                public void run() { started.set(now()); }
+            });
+        response.then(new Promise.Callback<Response>() {
+                public void succeeded(Response response) {
+                    circuit.record(response.statusCode() < 500 && !slow(started.get()));
+                }
+
+                public void failed(RuntimeException e) {
+                    if (e instanceof WebClient.LocalLimitException) {
+                        circuit.release();
+                    } else {
+                        circuit.record(false);
+                    }
+                }
+            });
+        return response;
+    }
+
+    // Gets are not retried, as they only ever fetch what can be fetched again.
+    public String get(String url) {
+        Circuit circuit = circuit(host(url));
+        circuit.acquire();
+        long started = now();
+        String body;
+        try {
+            body = wrapped.get(url);
+        } catch (WebClient.LocalLimitException e) {
+            circuit.release();
+            throw e;
+        } catch (ResponseValidatingWebClient.FailedResponseException e) {
+            circuit.record(e.statusCode() < 500 && !slow(started));
+            throw e;
+        } catch (RuntimeException e) {
+            circuit.record(false);
+            throw e;
+        }
+        circuit.record(!slow(started));
+        return body;
+    }
+
+    private boolean slow(long started) {
+        return slowCallMillis > 0 && now() - started >= slowCallMillis;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+
+    protected void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to retry", e);
+        }
+    }
+
+    private void backoff(String url, int attempt) {
+        long delay = backoffMillis << (attempt - 1);
+        delay = delay / 2 + (long) (random.nextDouble() * (delay / 2));
+        logger.retryingPost(url, attempt, delay);
+        sleep(delay);
+    }
+
+    private static boolean retryable(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof ConnectTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized Circuit circuit(String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            circuit = new Circuit(host);
+            circuits.put(host, circuit);
+        }
+        return circuit;
+    }
+
+    static String host(String url) {
+        if (url == null) return "";
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = url.indexOf('/', start);
+        return end < 0 ? url.substring(start) : url.substring(start, end);
+    }
+
+    private class Circuit {
+        private final String host;
+        private final boolean[] failed = new boolean[window];
+        private int next, calls, failures;
+        private State state = State.CLOSED;
+        private long openedAt;
+        private boolean probing;
+
+        public Circuit(String host) {
+            this.host = host;
+        }
+
+        public synchronized void acquire() {
+            if (state == State.CLOSED) return;
+            if (state == State.OPEN && now() - openedAt >= openMillis) {
+                state = State.HALF_OPEN;
+                probing = false;
+            }
+            if (state == State.HALF_OPEN && !probing) {
+                probing = true;
+                return;
+            }
+            throw new CircuitOpenException(host);
+        }
+
+        // Gives back a request that was never sent, so that another can be the
+        // trial request instead.
+        public synchronized void release() {
+            if (state == State.HALF_OPEN) probing = false;
+        }
+
+        public synchronized void record(boolean success) {
+            if (state == State.HALF_OPEN) {
+                if (success) close(); else open();
+                return;
+            }
+            if (state == State.OPEN) return;
+            if (calls == window) {
+                if (failed[next]) failures--;
+            } else {
+                calls++;
+            }
+            failed[next] = !success;
+            if (!success) failures++;
+            next = (next + 1) % window;
+            if (calls >= minimumCalls && failures >= calls * failureRatio) open();
+        }
+
+        private void open() {
+            state = State.OPEN;
+            openedAt = now();
+            logger.circuitOpened(host);
+        }
+
+        private void close() {
+            state = State.CLOSED;
+            next = calls = failures = 0;
+            Arrays.fill(failed, false);
+            logger.circuitClosed(host);
+        }
+    }
+}
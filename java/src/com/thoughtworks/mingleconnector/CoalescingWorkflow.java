@@ -0,0 +1,67 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Post-functions and automation rules sometimes fire the same transition twice
+// in quick succession. Only the first handover of an issue to a given status
+// within the window is let through; the repeats are counted in the metrics and
+// ignored.
+public class CoalescingWorkflow implements Event.Workflow {
+    private final Event.Workflow workflow;
+    private final long windowMillis;
+    private final Logger logger;
+    private final Metrics metrics;
+    private final Map<String, Long> seen;
+
+    public CoalescingWorkflow(Event.Workflow workflow, long windowMillis, final int maxIssues,
+                              Logger logger, Metrics metrics) {
+        this.workflow = workflow;
+        this.windowMillis = windowMillis;
+        this.logger = logger;
+        this.metrics = metrics;
+        this.seen = new LinkedHashMap<String, Long>() {
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxIssues || eldest.getValue() <= now() - CoalescingWorkflow.this.windowMillis;
+            }
+        };
+    }
+
+    public boolean isPassToDevelopment(Event.Changes changes, Issue issue) {
+        if (!workflow.isPassToDevelopment(changes, issue)) return false;
+        if (firstWithinWindow(issue.key() + "\n" + String.valueOf(changes.status()).toLowerCase(Locale.ENGLISH))) {
+            return true;
+        }
+        metrics.coalescedEvent();
+        logger.coalescedEvent(issue.key());
+        return false;
+    }
+
+    private synchronized boolean firstWithinWindow(String key) {
+        long now = now();
+        Long previous = seen.get(key);
+        if (previous != null && now - previous < windowMillis) return false;
+        seen.remove(key);
+        seen.put(key, now);
+        return true;
+    }
+
+    protected long now() {
+        return System.currentTimeMillis();
+    }
+}
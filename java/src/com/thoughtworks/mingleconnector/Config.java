@@ -14,10 +14,14 @@
 // 
 package com.thoughtworks.mingleconnector;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class Config {
     public enum Property {
@@ -28,7 +32,28 @@ public class Config {
             PRIORITIES("Priority mappings", false),
             INITIAL_CARD_VALUES("Initial card values", false),
             MINGLE("Mingle server", true), USER("Mingle user", true),
-            PASSWORD("Mingle password", true);
+            PASSWORD("Mingle password", true),
+            DISPATCH_THREADS("Dispatch threads", false),
+            DISPATCH_QUEUE_SIZE("Dispatch queue size", false),
+            DISPATCH_OVERFLOW("Dispatch overflow policy", false),
+            DISPATCH_TIMEOUT("Dispatch timeout in milliseconds", false),
+            OUTBOX_DIRECTORY("Outbox directory", false),
+            CONNECTIONS_PER_HOST("Connections to Mingle", false),
+            TOTAL_CONNECTIONS("Total connections", false),
+            IDLE_CONNECTION_TIMEOUT("Idle connection timeout in seconds", false),
+            CONNECT_TIMEOUT("Connect timeout in milliseconds", false),
+            READ_TIMEOUT("Read timeout in milliseconds", false),
+            BATCH_WINDOW("Batch window in milliseconds", false),
+            BATCH_SIZE("Maximum batch size", false),
+            DUPLICATE_WINDOW("Duplicate event window in milliseconds", false),
+            JIRA_CACHE_TIMEOUT("JIRA lookup cache timeout in seconds", false),
+            METADATA_REFRESH("Mingle metadata refresh in seconds", false),
+            BACKFILL_THREADS("Backfill threads", false),
+            DESCRIPTION_LIMIT("Description limit in bytes", false),
+            IN_FLIGHT_LIMIT("In-flight limit in kilobytes", false),
+            COMPRESS_REQUESTS("Compress requests", false),
+            WRITEBACK_WINDOW("Writeback window in milliseconds", false),
+            TRACE_SAMPLE_PERCENTAGE("Trace sample percentage", false);
 
         private final String name;
         private final boolean mandatory;
@@ -51,27 +76,151 @@ public class Config {
         }
     }
 
+    // The properties that only affect how events are turned into cards. A
+    // listener whose other properties are unchanged keeps its pipeline, and
+    // with it its connections and threads, when these change.
+    private static final Set<Property> RULES =
+        EnumSet.of(Property.PROJECTS, Property.HANDOVER_STATUSES, Property.TYPES,
+                   Property.PROPERTIES, Property.PRIORITIES, Property.INITIAL_CARD_VALUES,
+                   Property.DUPLICATE_WINDOW, Property.BACKFILL_THREADS,
+                   Property.DESCRIPTION_LIMIT);
+
     private final Map params;
+    private final Mapping projects, handoverStatuses, types, properties, priorities,
+        initialCardValues;
+    private final String mingle, user, password;
+    private final int dispatchThreads, dispatchQueueSize, connectionsPerHost, totalConnections,
+        connectTimeout, readTimeout, batchSize, backfillThreads, descriptionLimit, inFlightLimit;
+    private final long dispatchTimeout, idleConnectionTimeout, batchWindow, duplicateWindow,
+        jiraCacheTimeout, metadataRefresh, writebackWindow;
+    private final int traceSamplePercent;
+    private final boolean compressRequests;
+    private final AsyncDispatcher.Overflow dispatchOverflow;
+    private final File outboxDirectory;
+    private final Map<String, String> shared = new HashMap<String, String>();
+
+    // Everything is parsed and checked here, once, so that a configuration that
+    // has been built is valid and never changes.
     public Config(Map params) {
         this.params = params;
         validate();
+        projects = getMapped(Property.PROJECTS);
+        handoverStatuses = getMapped(Property.HANDOVER_STATUSES);
+        types = getMapped(Property.TYPES);
+        properties = getMapped(Property.PROPERTIES);
+        priorities = getMapped(Property.PRIORITIES);
+        initialCardValues = getMapped(Property.INITIAL_CARD_VALUES);
+        mingle = get(Property.MINGLE);
+        user = get(Property.USER);
+        password = get(Property.PASSWORD);
+        dispatchThreads = getInt(Property.DISPATCH_THREADS, 0);
+        dispatchQueueSize = getInt(Property.DISPATCH_QUEUE_SIZE, 1000);
+        dispatchTimeout = getInt(Property.DISPATCH_TIMEOUT, 5000);
+        dispatchOverflow = getOverflow();
+        connectionsPerHost = getInt(Property.CONNECTIONS_PER_HOST, WebClient.CONNECTIONS_PER_HOST);
+        totalConnections = getInt(Property.TOTAL_CONNECTIONS, WebClient.TOTAL_CONNECTIONS);
+        idleConnectionTimeout = getInt(Property.IDLE_CONNECTION_TIMEOUT,
+                                       (int) (WebClient.IDLE_TIMEOUT_MILLIS / 1000)) * 1000L;
+        connectTimeout = getInt(Property.CONNECT_TIMEOUT, WebClient.CONNECT_TIMEOUT_MILLIS);
+        readTimeout = getInt(Property.READ_TIMEOUT, WebClient.READ_TIMEOUT_MILLIS);
+        batchWindow = getInt(Property.BATCH_WINDOW, 0);
+        batchSize = getInt(Property.BATCH_SIZE, 50);
+        duplicateWindow = getInt(Property.DUPLICATE_WINDOW, 2000);
+        jiraCacheTimeout = getInt(Property.JIRA_CACHE_TIMEOUT, 300) * 1000L;
+        metadataRefresh = getInt(Property.METADATA_REFRESH, 600) * 1000L;
+        backfillThreads = getInt(Property.BACKFILL_THREADS, 4);
+        descriptionLimit = getInt(Property.DESCRIPTION_LIMIT, 256 * 1024);
+        inFlightLimit = getInt(Property.IN_FLIGHT_LIMIT, WebClient.IN_FLIGHT_KILOBYTES);
+        compressRequests = getBoolean(Property.COMPRESS_REQUESTS);
+        writebackWindow = getInt(Property.WRITEBACK_WINDOW, 0);
+        traceSamplePercent = Math.min(getInt(Property.TRACE_SAMPLE_PERCENTAGE, 1), 100);
+        outboxDirectory = blank(Property.OUTBOX_DIRECTORY)
+            ? null : new File(get(Property.OUTBOX_DIRECTORY).trim());
+        for (Property property : Property.values()) {
+            if (!RULES.contains(property) && defined(property)) {
+                shared.put(property.toString(), get(property));
+            }
+        }
     }
 
-    public Mapping projects() { return getMapped(Property.PROJECTS); }
-    public Mapping handoverStatuses() { return getMapped(Property.HANDOVER_STATUSES); }
-    public Mapping types() { return getMapped(Property.TYPES); }
-    public Mapping properties() { return getMapped(Property.PROPERTIES); }
-    public Mapping priorities() { return getMapped(Property.PRIORITIES); }
-    public Mapping initialCardValues() { return getMapped(Property.INITIAL_CARD_VALUES); }
-    public String mingle() { return get(Property.MINGLE); }
-    public String user() { return get(Property.USER); }
-    public String password() { return get(Property.PASSWORD); }
+    public Mapping projects() { return projects; }
+    public Mapping handoverStatuses() { return handoverStatuses; }
+    public Mapping types() { return types; }
+    public Mapping properties() { return properties; }
+    public Mapping priorities() { return priorities; }
+    public Mapping initialCardValues() { return initialCardValues; }
+    public String mingle() { return mingle; }
+    public String user() { return user; }
+    public String password() { return password; }
+    public boolean asynchronous() { return dispatchThreads > 0; }
+    public int dispatchThreads() { return dispatchThreads; }
+    public int dispatchQueueSize() { return dispatchQueueSize; }
+    public long dispatchTimeout() { return dispatchTimeout; }
+    public int connectionsPerHost() { return connectionsPerHost; }
+    public int totalConnections() { return totalConnections; }
+    public long idleConnectionTimeout() { return idleConnectionTimeout; }
+    public int connectTimeout() { return connectTimeout; }
+    public int readTimeout() { return readTimeout; }
+    public boolean batching() { return batchWindow > 0; }
+    public long batchWindow() { return batchWindow; }
+    public int batchSize() { return batchSize; }
+    public long duplicateWindow() { return duplicateWindow; }
+    public long jiraCacheTimeout() { return jiraCacheTimeout; }
+    public boolean validating() { return metadataRefresh > 0; }
+    public long metadataRefresh() { return metadataRefresh; }
+    public int backfillThreads() { return backfillThreads; }
+    public int descriptionLimit() { return descriptionLimit; }
+    public int inFlightLimit() { return inFlightLimit; }
+    public boolean compressRequests() { return compressRequests; }
+    public boolean deferringWriteback() { return writebackWindow > 0; }
+    public long writebackWindow() { return writebackWindow; }
+    public int traceSamplePercent() { return traceSamplePercent; }
+    public boolean durable() { return outboxDirectory != null; }
+    public File outboxDirectory() { return outboxDirectory; }
+    public AsyncDispatcher.Overflow dispatchOverflow() { return dispatchOverflow; }
+
+    // The values of every property that is not one of the rules, which decide
+    // whether two configurations can share a pipeline.
+    public Map<String, String> shared() { return Collections.unmodifiableMap(shared); }
+
+    private AsyncDispatcher.Overflow getOverflow() {
+        if (blank(Property.DISPATCH_OVERFLOW)) return AsyncDispatcher.Overflow.BLOCK;
+        try {
+            return AsyncDispatcher.Overflow.named(get(Property.DISPATCH_OVERFLOW));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(invalidMessage(Property.DISPATCH_OVERFLOW,
+                                                              AsyncDispatcher.Overflow.names()));
+        }
+    }
 
     private boolean defined(Property property) { return params.containsKey(property.toString()); }
     private String get(Property property) { return (String) params.get(property.toString()); }
+    private boolean blank(Property property) {
+        return !defined(property) || get(property) == null || get(property).trim().length() == 0;
+    }
+    private int getInt(Property property, int theDefault) {
+        if (blank(property)) return theDefault;
+        try {
+            int value = Integer.parseInt(get(property).trim());
+            if (value >= 0) return value;
+        } catch (NumberFormatException e) { }
+        throw new IllegalArgumentException(invalidMessage(property, "a whole number"));
+    }
+    private boolean getBoolean(Property property) {
+        if (blank(property)) return false;
+        String value = get(property).trim();
+        if (value.equalsIgnoreCase("true")) return true;
+        if (value.equalsIgnoreCase("false")) return false;
+        throw new IllegalArgumentException(invalidMessage(property, "true or false"));
+    }
     private Mapping getMapped(Property property) {
-        if (!defined(property)) return Mapping.empty();
-        return Mapping.parse(get(property));
+        if (blank(property)) return Mapping.empty();
+        try {
+            return Mapping.parse(get(property));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("ERROR - Mingle-JIRA Connector configuration is invalid. '" +
+                                               property + "' parameter is invalid: " + e.getMessage() + ".");
+        }
     }
 
     private void validate() {
@@ -89,4 +238,9 @@ public class Config {
         return "ERROR - Mingle-JIRA Connector configuration is invalid. '" +
             property + "' parameter must be provided.";
     }
+
+    private String invalidMessage(Property property, String expected) {
+        return "ERROR - Mingle-JIRA Connector configuration is invalid. '" +
+            property + "' parameter must be " + expected + ".";
+    }
 }
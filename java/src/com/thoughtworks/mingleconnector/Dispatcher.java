@@ -0,0 +1,30 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+public interface Dispatcher {
+    void dispatch(Event event);
+    void shutdown();
+
+    public class Synchronous implements Dispatcher {
+        private final EventHandler handler;
+        public Synchronous(EventHandler handler) {
+            this.handler = handler;
+        }
+
+        public void dispatch(Event event) { handler.handle(event); }
+        public void shutdown() { }
+    }
+}
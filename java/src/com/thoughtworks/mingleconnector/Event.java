@@ -31,6 +31,10 @@ public class Event {
         return workflow.isPassToDevelopment(changes, issue());
     }
 
+    public Event snapshot() {
+        return new Event(new Issue.Snapshot(issue), new ChangesSnapshot(changes.status()), workflow);
+    }
+
     public void complete(Description description) {
         description.details(issue.key(), changes.status());
     }
@@ -46,4 +50,13 @@ public class Event {
     public interface Workflow {
         boolean isPassToDevelopment(Event.Changes changes, Issue issue);
     }
+
+    private static class ChangesSnapshot implements Changes {
+        private final String status;
+        public ChangesSnapshot(String status) {
+            this.status = status;
+        }
+
+        public String status() { return status; }
+    }
 }
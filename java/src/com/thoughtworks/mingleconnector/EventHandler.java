@@ -14,27 +14,109 @@
 // 
 package com.thoughtworks.mingleconnector;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class EventHandler {
     private final Logger logger;
     private final CardFactory cardFactory;
+    private final Outbox outbox;
+    private final Metrics metrics;
+    private final Writebacks writebacks;
 
     public EventHandler(Logger logger, CardFactory cardFactory) {
+        this(logger, cardFactory, new Outbox.None());
+    }
+
+    public EventHandler(Logger logger, CardFactory cardFactory, Outbox outbox) {
+        this(logger, cardFactory, outbox, new Metrics());
+    }
+
+    public EventHandler(Logger logger, CardFactory cardFactory, Outbox outbox, Metrics metrics) {
+        this(logger, cardFactory, outbox, metrics, new Writebacks.Immediate(metrics));
+    }
+
+    public EventHandler(Logger logger, CardFactory cardFactory, Outbox outbox, Metrics metrics,
+                        Writebacks writebacks) {
         this.logger = logger;
         this.cardFactory = cardFactory;
+        this.outbox = outbox;
+        this.metrics = metrics;
+        this.writebacks = writebacks;
     }
 
     public void handle(Event event) {
         logger.handledEvent(event);
-        if (!event.isPassToDevelopment()) return;
-        Issue issue = event.issue();
-        Mingle.Project.Card card = createCard(issue);
-        issue.mingleUrl(card.url());
+        metrics.eventSeen();
+        long started = System.nanoTime();
+        boolean handover = event.isPassToDevelopment();
+        metrics.since(Metrics.Stage.HANDOVER_DETECTION, started);
+        if (!handover) return;
+        metrics.handover();
+        handover(event.issue());
+    }
+
+    // Creates the issue's cards, whether or not an event handed it over.
+    public void handover(Issue issue) {
+        long started = System.nanoTime();
+        List<Mingle.Project.Card> cards = cardFactory.createCards(issue);
+        metrics.since(Metrics.Stage.CARD_ASSEMBLY, started);
+        List<Outbox.Entry> entries = new ArrayList<Outbox.Entry>(cards.size());
+        for (Mingle.Project.Card card : cards) {
+            entries.add(outbox.record(issue.key(), card));
+        }
+        List<Promise<String>> saved = save(cards);
+
+        // The cards are all sent before any is waited for, so that fanning out to
+        // several projects takes about as long as the slowest of them.
+        List<String> urls = new ArrayList<String>(cards.size());
+        List<RuntimeException> failures = new ArrayList<RuntimeException>(cards.size());
+        for (int i = 0; i < cards.size(); i++) {
+            String url;
+            try {
+                url = saved.get(i).join();
+            } catch (RuntimeException e) {
+                failures.add(e);
+                continue;
+            }
+            failures.add(null);
+            outbox.confirm(entries.get(i));
+            logger.cardCreated(url);
+            urls.add(url);
+        }
+        if (!urls.isEmpty()) writebacks.mingleUrl(issue, join(urls));
+        for (int i = 0; i < cards.size(); i++) {
+            if (failures.get(i) != null) outbox.retryLater(entries.get(i), failures.get(i));
+        }
+    }
+
+    // A single card is saved on the calling thread, as there is nothing to wait
+    // for alongside it.
+    private List<Promise<String>> save(List<Mingle.Project.Card> cards) {
+        List<Promise<String>> saved = new ArrayList<Promise<String>>(cards.size());
+        if (cards.size() == 1) {
+            try {
+                cards.get(0).save();
+                saved.add(Promise.of(cards.get(0).url()));
+            } catch (RuntimeException e) {
+                saved.add(Promise.<String>failed(e));
+            }
+            return saved;
+        }
+        for (Mingle.Project.Card card : cards) {
+            saved.add(card.saveAsync());
+        }
+        return saved;
     }
 
-    private Mingle.Project.Card createCard(Issue issue) {
-        Mingle.Project.Card card = cardFactory.createCard(issue);
-        card.save();
-        logger.cardCreated(card.url());
-        return card;
+    // Every card's URL is recorded on the issue, separated by spaces.
+    private static String join(List<String> urls) {
+        if (urls.size() == 1) return urls.get(0);
+        StringBuilder joined = new StringBuilder();
+        for (String url : urls) {
+            if (joined.length() > 0) joined.append(' ');
+            joined.append(url);
+        }
+        return joined.toString();
     }
 }
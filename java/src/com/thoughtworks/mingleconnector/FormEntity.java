@@ -0,0 +1,143 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+// A form-encoded request body that is written straight from the parameters to
+// the connection, instead of being built up as a string first. The length is
+// worked out by a counting pass over the same parameters, as Mingle does not
+// accept chunked request bodies.
+class FormEntity implements RequestEntity {
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() { return new byte[4096]; }
+    };
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    private final List params;
+    private long length = -1;
+
+    public FormEntity(List params) {
+        this.params = params;
+    }
+
+    public boolean isRepeatable() { return true; }
+
+    public String getContentType() {
+        return "application/x-www-form-urlencoded; charset=UTF-8";
+    }
+
+    public long getContentLength() {
+        if (length < 0) {
+            try {
+                length = encode(null);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return length;
+    }
+
+    public void writeRequest(OutputStream out) throws IOException {
+        encode(out);
+    }
+
+    // Writes the encoded body to the stream, or only counts it if there is no
+    // stream, and returns its length in bytes.
+    private long encode(OutputStream out) throws IOException {
+        Encoder encoder = new Encoder(out, buffers.get());
+        for (int i = 0; i < params.size(); i++) {
+            Web.Param param = (Web.Param) params.get(i);
+            if (i > 0) encoder.raw('&');
+            encoder.encode(param.name);
+            encoder.raw('=');
+            encoder.encode(param.value);
+        }
+        return encoder.flush();
+    }
+
+    private static class Encoder {
+        private final OutputStream out;
+        private final byte[] buffer;
+        private int position;
+        private long count;
+
+        public Encoder(OutputStream out, byte[] buffer) {
+            this.out = out; this.buffer = buffer;
+        }
+
+        public void encode(String string) throws IOException {
+            if (string == null) return;
+            for (int i = 0; i < string.length(); i++) {
+                char c = string.charAt(i);
+                if (unreserved(c)) {
+                    raw(c);
+                } else if (c == ' ') {
+                    raw('+');
+                } else if (c < 0x80) {
+                    escape(c);
+                } else if (c < 0x800) {
+                    escape(0xC0 | (c >> 6));
+                    escape(0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < string.length() &&
+                           Character.isLowSurrogate(string.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                    escape(0xF0 | (codePoint >> 18));
+                    escape(0x80 | ((codePoint >> 12) & 0x3F));
+                    escape(0x80 | ((codePoint >> 6) & 0x3F));
+                    escape(0x80 | (codePoint & 0x3F));
+                } else if (c >= '\uD800' && c <= '\uDFFF') {
+                    raw('?');
+                } else {
+                    escape(0xE0 | (c >> 12));
+                    escape(0x80 | ((c >> 6) & 0x3F));
+                    escape(0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        public void raw(int b) throws IOException {
+            if (position == buffer.length) drain();
+            buffer[position++] = (byte) b;
+        }
+
+        public long flush() throws IOException {
+            drain();
+            if (out != null) out.flush();
+            return count;
+        }
+
+        private void escape(int b) throws IOException {
+            raw('%');
+            raw(HEX[(b >> 4) & 0xF]);
+            raw(HEX[b & 0xF]);
+        }
+
+        private void drain() throws IOException {
+            if (out != null) out.write(buffer, 0, position);
+            count += position;
+            position = 0;
+        }
+
+        private static boolean unreserved(char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                c == '-' || c == '_' || c == '.' || c == '*';
+        }
+    }
+}
@@ -0,0 +1,64 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+// Compresses another request body. Mingle does not accept chunked bodies, so the
+// compressed bytes are kept to give their length up front; the body they are
+// compressed from is still written straight into the compressor.
+class GzipEntity implements RequestEntity {
+    private final RequestEntity uncompressed;
+    private byte[] compressed;
+
+    public GzipEntity(RequestEntity uncompressed) {
+        this.uncompressed = uncompressed;
+    }
+
+    public boolean isRepeatable() { return true; }
+
+    public String getContentType() {
+        return uncompressed.getContentType();
+    }
+
+    public long getContentLength() {
+        return compressed().length;
+    }
+
+    public void writeRequest(OutputStream out) throws IOException {
+        out.write(compressed());
+        out.flush();
+    }
+
+    private byte[] compressed() {
+        if (compressed == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+                uncompressed.writeRequest(gzip);
+                gzip.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            compressed = bytes.toByteArray();
+        }
+        return compressed;
+    }
+}
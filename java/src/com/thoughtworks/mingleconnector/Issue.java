@@ -14,8 +14,9 @@
 // 
 package com.thoughtworks.mingleconnector;
 
+import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 public interface Issue {
@@ -26,10 +27,12 @@ public interface Issue {
     public String url();
     public String project();
     public void mingleUrl(String url);
+    // Adds space-separated URLs to those already recorded, leaving out any that are.
+    public void addMingleUrl(String urls);
     public <T> Maybe<T> field(Field<T> field);
 
     public class Field<T> {
-        private static final Map<String, Field> instances = new HashMap<String, Field>();
+        private static final Map<String, Field> instances = new LinkedHashMap<String, Field>();
         public static Field<String> ASSIGNEE = new Field<String>("ASSIGNEE");
         public static Field<String> REPORTER = new Field<String>("REPORTER");
         public static Field<String> PROJECT = new Field<String>("PROJECT");
@@ -57,5 +60,41 @@ public interface Issue {
             }
             return instances.get(canonicalName);
         }
+
+        public static Collection<Field> all() {
+            return instances.values();
+        }
+    }
+
+    // Captures everything a card is built from on the calling thread, so that the
+    // card can be created later on another thread. Only the Mingle URL is written
+    // back to the original issue.
+    public class Snapshot implements Issue {
+        private final Issue source;
+        private final String key, type, summary, description, url, project;
+        private final Map<Field, Maybe> fields = new LinkedHashMap<Field, Maybe>();
+
+        public Snapshot(Issue source) {
+            this.source = source;
+            this.key = source.key(); this.type = source.type(); this.summary = source.summary();
+            this.description = source.description(); this.url = source.url();
+            this.project = source.project();
+            for (Field field : Field.all()) {
+                fields.put(field, source.field(field));
+            }
+        }
+
+        public String key() { return key; }
+        public String type() { return type; }
+        public String summary() { return summary; }
+        public String description() { return description; }
+        public String url() { return url; }
+        public String project() { return project; }
+        public void mingleUrl(String url) { source.mingleUrl(url); }
+        public void addMingleUrl(String urls) { source.addMingleUrl(urls); }
+
+        public <T> Maybe<T> field(Field<T> field) {
+            return (Maybe<T>) fields.get(field);
+        }
     }
 }
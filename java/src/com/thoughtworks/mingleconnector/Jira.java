@@ -16,14 +16,20 @@ package com.thoughtworks.mingleconnector;
 
 import static com.thoughtworks.mingleconnector.Maybe.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.atlassian.jira.ComponentManager;
 import com.atlassian.jira.config.properties.APKeys;
 import com.atlassian.jira.event.issue.IssueEvent;
-import com.atlassian.jira.issue.CustomFieldManager;
 import com.atlassian.jira.issue.fields.CustomField;
 import com.opensymphony.user.User;
 import org.ofbiz.core.entity.GenericEntity;
@@ -31,20 +37,46 @@ import org.ofbiz.core.entity.GenericEntityException;
 import org.ofbiz.core.entity.GenericValue;
 
 class Jira {
+    private static final String MINGLE_CARD = "Mingle Card";
+
+    // The change log is read from the database once, on first use, into a
+    // projection indexed by field name that answers every later question.
     public static class Changes implements Event.Changes {
         private final IssueEvent event;
+        private volatile Map<String, Change> projection;
         public Changes(IssueEvent event) {
             this.event = event;
         }
 
         public String status() {
-            for (Object o : changes()) {
-                GenericEntity change = (GenericEntity) o;
-                if ("status".equalsIgnoreCase(change.getString("field"))) {
-                    return change.getString("newstring");
+            Change change = projection().get("status");
+            return change == null ? null : change.newValue;
+        }
+
+        public Maybe<Change> change(String field) {
+            return fromNullable(projection().get(field.toLowerCase(Locale.ENGLISH)));
+        }
+
+        private Map<String, Change> projection() {
+            Map<String, Change> projection = this.projection;
+            if (projection == null) this.projection = projection = project(changes());
+            return projection;
+        }
+
+        private static Map<String, Change> project(List changes) {
+            if (changes.isEmpty()) return Collections.emptyMap();
+            Map<String, Change> projection = new HashMap<String, Change>(changes.size() * 2);
+            for (Object o : changes) {
+                GenericEntity item = (GenericEntity) o;
+                String field = item.getString("field");
+                if (field == null) continue;
+                String key = field.toLowerCase(Locale.ENGLISH);
+                if (!projection.containsKey(key)) {
+                    projection.put(key, new Change(field, item.getString("oldstring"),
+                                                   item.getString("newstring")));
                 }
             }
-            return null;
+            return Collections.unmodifiableMap(projection);
         }
 
         private List changes() {
@@ -58,12 +90,143 @@ class Jira {
         }
     }
 
+    public static class Change {
+        public final String field, oldValue, newValue;
+        public Change(String field, String oldValue, String newValue) {
+            this.field = field; this.oldValue = oldValue; this.newValue = newValue;
+        }
+    }
+
+    public static class Writeback implements Outbox.Writeback {
+        private final Components components;
+        private final Logger logger;
+        public Writeback(Components components, Logger logger) {
+            this.components = components;
+            this.logger = logger;
+        }
+
+        public void mingleUrl(String issueKey, String url) {
+            com.atlassian.jira.issue.Issue issue =
+                ComponentManager.getInstance().getIssueManager().getIssueObject(issueKey);
+            if (issue == null) {
+                throw new RuntimeException("Issue " + issueKey + " does not exist");
+            }
+            new Issue(issue, components, logger).addMingleUrl(url);
+        }
+    }
+
+    // Finds issues by key, one at a time, so that nothing is held for a whole
+    // project however large it is.
+    public static class Backlog implements Backfill.Source {
+        private final Components components;
+        private final Logger logger;
+        public Backlog(Components components, Logger logger) {
+            this.components = components;
+            this.logger = logger;
+        }
+
+        public long lastNumber(String project) {
+            com.atlassian.jira.project.Project found =
+                ComponentManager.getInstance().getProjectManager().getProjectObjByKey(project);
+            if (found == null) throw new IllegalArgumentException("Unknown project " + project);
+            return found.getCounter() == null ? 0 : found.getCounter();
+        }
+
+        public Maybe<com.thoughtworks.mingleconnector.Issue> pending(String project, long number,
+                                                                   String status) {
+            com.atlassian.jira.issue.Issue issue = ComponentManager.getInstance().getIssueManager()
+                .getIssueObject(project + "-" + number);
+            // Issues that were deleted, or moved to another project, leave gaps.
+            if (issue == null || issue.getStatusObject() == null) return nothing();
+            if (!issue.getStatusObject().getName().equalsIgnoreCase(status)) return nothing();
+            Issue pending = new Issue(issue, components, logger);
+            if (pending.hasMingleUrl()) return nothing();
+            return definitely((com.thoughtworks.mingleconnector.Issue) pending);
+        }
+    }
+
+    // Remembers the answers to lookups that are slow on large JIRA instances, for
+    // the given time, as they rarely change. A time of 0 turns this off.
+    public static class Components {
+        private static final int MAXIMUM_USERS = 10000;
+        private final long timeoutMillis;
+        private final ConcurrentMap<String, Cached<String>> fullNames =
+            new ConcurrentHashMap<String, Cached<String>>();
+        private volatile Cached<String> baseURL;
+        private volatile Cached<CustomField> mingleCard;
+
+        public Components(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        public String baseURL() {
+            Cached<String> cached = baseURL;
+            if (cached != null && cached.fresh(now())) return cached.value;
+            String value = ComponentManager.getInstance().getApplicationProperties()
+                .getString(APKeys.JIRA_BASEURL);
+            baseURL = cache(value);
+            return value;
+        }
+
+        // A missing field is looked up again next time, so that it is picked up
+        // as soon as an administrator creates it.
+        public CustomField mingleCard() {
+            Cached<CustomField> cached = mingleCard;
+            if (cached != null && cached.fresh(now())) return cached.value;
+            CustomField field = ComponentManager.getInstance().getCustomFieldManager()
+                .getCustomFieldObjectByName(MINGLE_CARD);
+            mingleCard = field == null ? null : cache(field);
+            return field;
+        }
+
+        public String fullName(User user) {
+            String name = user.getName();
+            Cached<String> cached = name == null ? null : fullNames.get(name);
+            if (cached != null && cached.fresh(now())) return cached.value;
+            String fullName = user.getFullName();
+            if (name != null && timeoutMillis > 0) {
+                if (fullNames.size() >= MAXIMUM_USERS) fullNames.clear();
+                fullNames.put(name, cache(fullName));
+            }
+            return fullName;
+        }
+
+        public void invalidate() {
+            baseURL = null;
+            mingleCard = null;
+            fullNames.clear();
+        }
+
+        protected long now() {
+            return System.currentTimeMillis();
+        }
+
+        private <T> Cached<T> cache(T value) {
+            return timeoutMillis > 0 ? new Cached<T>(value, now() + timeoutMillis) : null;
+        }
+
+        private static class Cached<T> {
+            public final T value;
+            private final long expires;
+            public Cached(T value, long expires) {
+                this.value = value; this.expires = expires;
+            }
+
+            public boolean fresh(long now) { return now < expires; }
+        }
+    }
+
     public static class Issue implements com.thoughtworks.mingleconnector.Issue {
-        private final ComponentManager components = ComponentManager.getInstance();
         private final com.atlassian.jira.issue.Issue issue;
+        private final Components components;
         private final Logger logger;
         public Issue(com.atlassian.jira.issue.Issue issue, Logger logger) {
+            this(issue, new Components(0), logger);
+        }
+
+        public Issue(com.atlassian.jira.issue.Issue issue, Components components, Logger logger) {
             this.issue = issue;
+            this.components = components;
             this.logger = logger;
         }
 
@@ -95,7 +258,7 @@ class Jira {
         }
 
         public String url() {
-            return baseURL()+"/browse/" + issue.getKey();
+            return components.baseURL()+"/browse/" + issue.getKey();
         }
 
         public String project() {
@@ -103,24 +266,44 @@ class Jira {
         }
 
         public void mingleUrl(String url) {
-            CustomFieldManager manager = components.getCustomFieldManager();
-            CustomField field = manager.getCustomFieldObjectByName("Mingle Card");
-            // TESTCASE
-            if (field == null) {
-                throw new RuntimeException("Custom field 'Mingle Card' does not exist");
+            mingleCard().createValue(issue, url);
+            logger.settingCustomField(key(), MINGLE_CARD, url);
+        }
+
+        public boolean hasMingleUrl() {
+            Object existing = mingleCard().getValue(issue);
+            return existing != null && existing.toString().trim().length() > 0;
+        }
+
+        // A card sent late from the outbox, or written back later in a batch, joins
+        // any created alongside it in other projects, rather than replacing them.
+        public void addMingleUrl(String urls) {
+            Object existing = mingleCard().getValue(issue);
+            String recorded = existing == null ? "" : existing.toString().trim();
+            List<String> known = new ArrayList<String>(Arrays.asList(recorded.split(" ")));
+            StringBuilder value = new StringBuilder(recorded);
+            for (String url : urls.trim().split(" +")) {
+                if (url.length() == 0 || known.contains(url)) continue;
+                known.add(url);
+                if (value.length() > 0) value.append(' ');
+                value.append(url);
             }
-            field.createValue(issue, url);
-            logger.settingCustomField(key(), "Mingle Card", url);
+            if (value.length() > recorded.length()) mingleUrl(value.toString());
         }
 
-        private String baseURL() {
-            return components.getApplicationProperties().getString(APKeys.JIRA_BASEURL);
+        private CustomField mingleCard() {
+            CustomField field = components.mingleCard();
+            // TESTCASE
+            if (field == null) {
+                throw new RuntimeException("Custom field '" + MINGLE_CARD + "' does not exist");
+            }
+            return field;
         }
 
         private Function<User, String> userName() {
             return new Function<User, String>() {
                 public String call(User user) {
-                    return user.getFullName();
+                    return components.fullName(user);
                 }
             };
         }
@@ -0,0 +1,334 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// Keeps an append-only journal of card creations in segment files. Each card is
+// journalled before it is posted and confirmed once Mingle has accepted it, so
+// cards that could not be created, even across a restart, are posted again by a
+// background drainer. Once the active segment grows past its limit the cards
+// still pending are copied into a fresh segment and the old segments are deleted.
+public class JournalOutbox implements Outbox {
+    private static final byte PENDING = 1, CONFIRMED = 2;
+    private static final String PREFIX = "outbox-", SUFFIX = ".journal";
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+    private final File directory;
+    private final long segmentBytes;
+    private final Mingle.API api;
+    private final Writeback writeback;
+    private final Logger logger;
+    private final Map<Long, Entry> pending = new LinkedHashMap<Long, Entry>();
+    private final Set<Long> inFlight = new HashSet<Long>();
+    private final List<File> segments = new ArrayList<File>();
+    private ScheduledExecutorService drainer;
+    private File activeFile;
+    private FileChannel active;
+    private long nextId = 1;
+    private long nextSegment = 1;
+
+    public JournalOutbox(File directory, long segmentBytes, Mingle.API api, Writeback writeback,
+                         Logger logger) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.api = api;
+        this.writeback = writeback;
+        this.logger = logger;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create outbox directory " + directory);
+        }
+        recover();
+        roll();
+    }
+
+    public synchronized void start(long retryMillis) {
+        if (drainer != null) return;
+        drainer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mingle-connector-outbox");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        drainer.scheduleWithFixedDelay(new Runnable() {
+                public void run() { drain(); }
+            }, retryMillis, retryMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (drainer != null) drainer.shutdown();
+        close(active);
+    }
+
+    public synchronized Entry record(String issueKey, Mingle.Project.Card card) {
+        Entry entry = new Entry(nextId++, issueKey, card);
+        append(PENDING, entry);
+        pending.put(entry.id, entry);
+        inFlight.add(entry.id);
+        return entry;
+    }
+
+    public synchronized void confirm(Entry entry) {
+        append(CONFIRMED, entry);
+        pending.remove(entry.id);
+        inFlight.remove(entry.id);
+        if (size() > segmentBytes) roll();
+    }
+
+    // A card that Mingle rejected outright is discarded rather than sent again.
+    public synchronized void retryLater(Entry entry, RuntimeException failure) {
+        if (permanent(failure)) {
+            confirm(entry);
+            logger.discardedCard(entry.issueKey, failure);
+            return;
+        }
+        inFlight.remove(entry.id);
+        logger.deferredCard(entry.issueKey, failure);
+    }
+
+    public synchronized int pending() {
+        return pending.size();
+    }
+
+    // Posts the cards that are neither confirmed nor being posted already. Cards
+    // Mingle rejects are discarded and the rest carry on, but any other failure
+    // stops the drain, as Mingle is most likely still unavailable.
+    void drain() {
+        List<Entry> claimed = claim();
+        for (int i = 0; i < claimed.size(); i++) {
+            Entry entry = claimed.get(i);
+            String url;
+            try {
+                url = entry.send(api);
+            } catch (RuntimeException e) {
+                retryLater(entry, e);
+                if (permanent(e)) continue;
+                release(claimed.subList(i + 1, claimed.size()));
+                return;
+            }
+            confirm(entry);
+            logger.cardCreated(url);
+            try {
+                writeback.mingleUrl(entry.issueKey, url);
+            } catch (RuntimeException e) {
+                logger.failedEvent(entry.issueKey, e);
+            }
+        }
+    }
+
+    private static boolean permanent(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MingleMetadata.InvalidCardException) return true;
+            if (cause instanceof ResponseValidatingWebClient.FailedResponseException) {
+                return ((ResponseValidatingWebClient.FailedResponseException) cause).permanent();
+            }
+        }
+        return false;
+    }
+
+    private synchronized List<Entry> claim() {
+        List<Entry> claimed = new ArrayList<Entry>();
+        for (Entry entry : pending.values()) {
+            if (inFlight.add(entry.id)) claimed.add(entry);
+        }
+        return claimed;
+    }
+
+    private synchronized void release(List<Entry> entries) {
+        for (Entry entry : entries) {
+            inFlight.remove(entry.id);
+        }
+    }
+
+    private void recover() {
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) continue;
+            long sequence = Long.parseLong(name.substring(PREFIX.length(),
+                                                          name.length() - SUFFIX.length()));
+            nextSegment = Math.max(nextSegment, sequence + 1);
+            segments.add(file);
+            replay(file);
+        }
+    }
+
+    private void replay(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            while (true) {
+                byte[] record = readRecord(in);
+                if (record == null) return;
+                apply(new DataInputStream(new ByteArrayInputStream(record)));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read outbox journal " + file, e);
+        } finally {
+            close(in);
+        }
+    }
+
+    // Returns null at the end of the segment, including a record that was only
+    // partly written when the process died.
+    private byte[] readRecord(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            long checksum = in.readLong();
+            if (length <= 0 || length > MAX_RECORD_BYTES) return null;
+            byte[] record = new byte[length];
+            in.readFully(record);
+            return checksum(record) == checksum ? record : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        long id = in.readLong();
+        nextId = Math.max(nextId, id + 1);
+        if (type == CONFIRMED) {
+            pending.remove(id);
+            return;
+        }
+        String issueKey = readString(in), server = readString(in), project = readString(in),
+            cardType = readString(in), name = readString(in), description = readString(in);
+        Map<String, String> properties = new LinkedHashMap<String, String>();
+        for (int count = in.readInt(); count > 0; count--) {
+            properties.put(readString(in), readString(in));
+        }
+        pending.put(id, new Entry(id, issueKey, server, project, cardType, name, description,
+                                  properties));
+    }
+
+    private void roll() {
+        File file = new File(directory, String.format("%s%016d%s", PREFIX, nextSegment++, SUFFIX));
+        FileChannel previous = active;
+        try {
+            active = new RandomAccessFile(file, "rw").getChannel();
+            activeFile = file;
+            for (Entry entry : pending.values()) {
+                write(PENDING, entry);
+            }
+            active.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write outbox journal " + file, e);
+        }
+        close(previous);
+        for (File segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+        segments.add(file);
+    }
+
+    private long size() {
+        try {
+            return active.size();
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot read outbox journal " + activeFile, e);
+        }
+    }
+
+    private void append(byte type, Entry entry) {
+        try {
+            write(type, entry);
+            active.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot write outbox journal " + activeFile, e);
+        }
+    }
+
+    private void write(byte type, Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(type);
+        out.writeLong(entry.id);
+        if (type == PENDING) {
+            writeString(out, entry.issueKey); writeString(out, entry.server);
+            writeString(out, entry.project); writeString(out, entry.type);
+            writeString(out, entry.name); writeString(out, entry.description);
+            out.writeInt(entry.properties.size());
+            for (Map.Entry<String, String> property : entry.properties.entrySet()) {
+                writeString(out, property.getKey());
+                writeString(out, property.getValue());
+            }
+        }
+        byte[] record = bytes.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(12 + record.length);
+        buffer.putInt(record.length).putLong(checksum(record)).put(record).flip();
+        while (buffer.hasRemaining()) {
+            active.write(buffer);
+        }
+    }
+
+    private static long checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return crc.getValue();
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) { }
+    }
+}
@@ -15,17 +15,25 @@
 package com.thoughtworks.mingleconnector;
 
 import java.util.Map;
-import java.util.HashMap;
 
 import com.atlassian.jira.event.issue.AbstractIssueEventListener;
 import com.atlassian.jira.event.issue.IssueEvent;
 
 public class Listener extends AbstractIssueEventListener {
-    private final Logger logger = new Log4JLogger();
-    private Config config;
+    private volatile Pipeline.Rules rules;
 
     public String[] getAcceptedParams() { return Config.Property.names(); }
-    public void init(Map params) { config = new Config(params); }
+
+    // A new configuration is compiled in full before it replaces the old one, so
+    // events never see a partly applied configuration. Only changes to settings
+    // other than the mappings and duplicate window rebuild the pipeline.
+    public void init(Map params) {
+        Config config = new Config(params);
+        Pipeline.Rules previous = rules;
+        rules = Pipeline.acquire(config).rules(config);
+        if (previous != null) previous.pipeline().release();
+    }
+
     public String getDescription() {
         return "Mingle-JIRA Connector. Enter the details of your " +
             "Mingle server and specify the mappings that you require. All properties are " +
@@ -40,8 +48,10 @@ public class Listener extends AbstractIssueEventListener {
             "<br><br>" +
             "For the project mappings, the left values are JIRA project keys and the right " +
             "values are Mingle project identifiers. Each JIRA project must be associated with " +
-            "exactly one Mingle project; each Mingle project may be associated with one or more " +
-            "JIRA projects." +
+            "at least one Mingle project; each Mingle project may be associated with one or more " +
+            "JIRA projects. To create a card in several Mingle projects, separate their " +
+            "identifiers with '|', as in SUP=>platform|web. The cards are created at the same " +
+            "time and all of their URLs are recorded on the issue, separated by spaces." +
             "<br><br>" +
             "For the handover status mappings, the left values are JIRA project keys and the right " +
             "values are the JIRA status which triggers handover to Mingle. " +
@@ -54,30 +64,84 @@ public class Listener extends AbstractIssueEventListener {
             "<br><br>" +
             "For the property mappings, the left values are JIRA fields and the right values " +
             "the Mingle properties that they should be mapped to. Available JIRA fields are " +
-            "Assignee, Reporter, Created, Due Date, Priority and Project. " +
+            "Assignee, Reporter, Created, Due Date, Priority, Project and Correlation ID. " +
             "Only specify the fields you want copied to new cards. This property is optional." +
             "<br><br>" +
             "For the initial card values, the left values are Mingle properties and the right values " +
             "the initial value that they should be mapped to. This property is optional." +
+            "<br><br>" +
+            "By default cards are created while the JIRA transition is being made. Set the " +
+            "dispatch threads to a positive number to create them in the background instead. " +
+            "Events wait in a queue of the given dispatch queue size (default 1000). When the " +
+            "queue is full the dispatch overflow policy decides what happens: 'block' waits up " +
+            "to the dispatch timeout (default 5000 milliseconds) for space and then drops the " +
+            "event, 'caller-runs' creates the card during the transition and 'discard' drops " +
+            "the event straight away. Dropped events are logged. These properties are optional." +
+            "<br><br>" +
+            "If an outbox directory is given, each card is recorded there before it is sent to " +
+            "Mingle. Cards that could not be created, for example because Mingle was down or " +
+            "JIRA restarted, are sent again in the background until Mingle accepts them. The " +
+            "directory must be writable by JIRA. This property is optional." +
+            "<br><br>" +
+            "Connections to Mingle are kept open and reused. At most the given number of " +
+            "connections to Mingle (default 8) and total connections (default 32) are opened, " +
+            "and connections left idle for longer than the idle connection timeout (default 60 " +
+            "seconds) are closed. Requests to Mingle give up after the connect timeout (default " +
+            "10000 milliseconds) or read timeout (default 30000 milliseconds). When most recent " +
+            "requests to Mingle have failed, no more are sent for 30 seconds. " +
+            "These properties are optional." +
+            "<br><br>" +
+            "Descriptions longer than the description limit (default 262144 bytes) are cut " +
+            "short, with a link to the full description in JIRA; set it to 0 to send them " +
+            "whole. At most the in-flight limit (default 16384 kilobytes) of cards is sent to " +
+            "Mingle at once, and further cards wait for earlier ones to be sent. Set it to 0 to " +
+            "turn this off. These properties are optional." +
+            "<br><br>" +
+            "Responses from Mingle are always asked for compressed. Set compress requests to " +
+            "true to compress cards as well; only do this if Mingle, and anything in front of " +
+            "it, accepts gzipped request bodies. This property is optional." +
+            "<br><br>" +
+            "Set the batch window to a number of milliseconds to gather the cards created for " +
+            "each Mingle project over that window and send them one after another over a " +
+            "single connection, up to the maximum batch size (default 50) at a time. This " +
+            "smooths out bulk transitions. These properties are optional." +
+            "<br><br>" +
+            "The URL of each new card is added to those already recorded on its issue. " +
+            "Recording them in the background is opt-in: with the writeback window left at its " +
+            "default of 0, each URL is recorded as soon as its card is created, during the " +
+            "transition. Set it to a number of milliseconds to record them in the background " +
+            "instead, gathered over that window, so that a slow JIRA does not hold up sending " +
+            "cards to Mingle. Failed writes are tried again a few times, and if too many URLs " +
+            "are waiting the rest are dropped and logged. This property is optional." +
+            "<br><br>" +
+            "Each event is given a correlation ID, which starts every message logged about it " +
+            "and is sent to Mingle in the X-Correlation-ID header. Map Correlation ID to a " +
+            "Mingle property to keep it on the card as well, where the Mingle-JIRA daemon reads " +
+            "it back. For the trace sample percentage (default 1) of events, the time spent in " +
+            "each stage is logged too. This property is optional." +
+            "<br><br>" +
+            "An issue handed over to the same status again within the duplicate event window " +
+            "(default 2000 milliseconds) is ignored, so that a transition fired twice does not " +
+            "create two cards. Set it to 0 to turn this off. This property is optional." +
+            "<br><br>" +
+            "JIRA's base URL, the 'Mingle Card' custom field and users' full names are looked " +
+            "up once and remembered for the JIRA lookup cache timeout (default 300 seconds), " +
+            "or until the listener is configured again. Set it to 0 to look them up for every " +
+            "issue. This property is optional." +
+            "<br><br>" +
+            "The card types, properties and property values of each Mingle project are " +
+            "fetched from Mingle and refreshed every Mingle metadata refresh (default 600 " +
+            "seconds). Cards are checked against them before they are sent, and names that " +
+            "differ only in case are corrected. Set it to 0 to send cards unchecked. This " +
+            "property is optional." +
+            "<br><br>" +
+            "Counts of events, handovers, failed requests and unmappable values, and the time " +
+            "taken to detect handovers, build cards, post them to Mingle and record them on the " +
+            "issue, are published over JMX as com.thoughtworks.mingleconnector:type=Metrics." +
             "<br><br>";
     }
 
     public void workflowEvent(final IssueEvent event) {
-        eventHandler().handle(new Event(new Jira.Issue(event.getIssue(), logger),
-                                        new Jira.Changes(event), new Workflow(config.handoverStatuses())));
-    }
-
-    private EventHandler eventHandler() {
-        Web web = new ResponseValidatingWebClient(
-                        new LoggingWebClient(
-                              new WebClient(config.user(), config.password()),
-                              logger));
-        final Mingle mingle = new Mingle(new WebAPI(web), config.mingle());
-
-        ProjectMap projectMap = new SimpleProjectMap(config.projects(), mingle);
-        return new EventHandler(logger,
-                                new CardFactory(config.types(), config.properties(),
-                                                projectMap, config.initialCardValues(),
-                                                config.priorities(), logger));
+        rules.handle(event);
     }
 }
@@ -14,35 +14,278 @@
 // 
 package com.thoughtworks.mingleconnector;
 
+import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+import org.apache.log4j.Level;
+import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+
+// Every message is checked against its level before it is built, and is then
+// handed to a single background thread that passes it to log4j's appenders, so
+// that writing the log never happens on the thread handling an event. The thread,
+// timestamp, NDC and MDC of each message are those of the caller; its location
+// is not available. When the buffer is full, debug and info messages are
+// dropped, and counted in a later warning; warnings and errors wait for room.
+// Messages logged while an event is being worked on start with its correlation
+// ID, which is also given to layouts as the correlationId property.
+//
+// The background thread is started by the first message and parks whenever the
+// buffer is empty, to be woken by the next message. shutdown stops it, and it
+// starts again if anything more is logged.
 public class Log4JLogger implements Logger {
-    private final org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger("mingle-connector");
+    public static final int BUFFER_SIZE = 8192;
+    private static final long FULL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final String FQCN = Log4JLogger.class.getName();
+    private static final String CORRELATION_ID = "correlationId";
+
+    private static final org.apache.log4j.Logger logger =
+        org.apache.log4j.Logger.getLogger("mingle-connector");
+    private static final RingBuffer<LoggingEvent> buffer = new RingBuffer<LoggingEvent>(BUFFER_SIZE);
+    private static final AtomicLong unwritten = new AtomicLong(), dropped = new AtomicLong();
+    private static volatile Thread appender; // replaced while holding Log4JLogger.class
+    private static volatile boolean parked;
+
     public void handledEvent(Event event) {
+        if (!logger.isInfoEnabled()) return;
         event.complete(new Event.Description() {
                 public void details(String issueKey, String newStatus) {
-                    logger.info("Received an event on " + issueKey + " with status " + newStatus);
+                    log(Level.INFO, "Received an event on " + issueKey + " with status " + newStatus);
                 }
             });
     }
 
+    // Long parameter values are abbreviated by Web.Param.
     public void webPost(String url, List params) {
-        logger.debug("Posted to " + url + " with parameters '" + params + "'.");
+        if (!logger.isDebugEnabled()) return;
+        log(Level.DEBUG, "Posted to " + url + " with parameters '" + params + "'.");
     }
 
     public void webResponse(int statusCode) {
-        logger.debug("Received the response code " + statusCode);
+        if (!logger.isDebugEnabled()) return;
+        log(Level.DEBUG, "Received the response code " + statusCode);
     }
 
     public void cardCreated(String url) {
-        logger.info("Created Mingle card at " + url);
+        if (!logger.isInfoEnabled()) return;
+        log(Level.INFO, "Created Mingle card at " + url);
     }
 
     public void settingCustomField(String issueKey, String fieldName, String value) {
-        logger.debug("Setting custom field on issue "+issueKey+": '"+fieldName+"'='"+value+"'");
+        if (!logger.isDebugEnabled()) return;
+        log(Level.DEBUG, "Setting custom field on issue "+issueKey+": '"+fieldName+"'='"+value+"'");
     }
 
     public void unmappableValue(String field, Object value) {
-        logger.error("Could not map field " + field + " with value " + value);
+        if (!logger.isEnabledFor(Level.ERROR)) return;
+        log(Level.ERROR, "Could not map field " + field + " with value " + value);
+    }
+
+    public void droppedEvent(String issueKey) {
+        if (!logger.isEnabledFor(Level.ERROR)) return;
+        log(Level.ERROR, "Dropped the event on " + issueKey + " because the dispatch queue is full");
+    }
+
+    public void failedEvent(String issueKey, RuntimeException e) {
+        if (!logger.isEnabledFor(Level.ERROR)) return;
+        log(Level.ERROR, "Could not handle the event on " + issueKey, e);
+    }
+
+    public void deferredCard(String issueKey, RuntimeException e) {
+        if (!logger.isEnabledFor(Level.WARN)) return;
+        log(Level.WARN, "Could not create the card for " + issueKey + "; it will be retried", e);
+    }
+
+    public void discardedCard(String issueKey, RuntimeException e) {
+        if (!logger.isEnabledFor(Level.ERROR)) return;
+        log(Level.ERROR, "Mingle rejected the card for " + issueKey + "; it will not be sent again", e);
+    }
+
+    public void coalescedEvent(String issueKey) {
+        if (!logger.isInfoEnabled()) return;
+        log(Level.INFO, "Ignored a repeated handover of " + issueKey);
+    }
+
+    public void retryingPost(String url, int attempt, long delayMillis) {
+        if (!logger.isEnabledFor(Level.WARN)) return;
+        log(Level.WARN, "Post " + attempt + " to " + url + " failed; retrying in " + delayMillis + "ms");
+    }
+
+    public void circuitOpened(String host) {
+        if (!logger.isEnabledFor(Level.ERROR)) return;
+        log(Level.ERROR, "Too many requests to " + host + " have failed; not sending any more for now");
+    }
+
+    public void circuitClosed(String host) {
+        if (!logger.isInfoEnabled()) return;
+        log(Level.INFO, "Requests to " + host + " are succeeding again");
+    }
+
+    public void unpublishedMetrics(Exception e) {
+        if (!logger.isEnabledFor(Level.WARN)) return;
+        log(Level.WARN, "Could not publish the connector's metrics over JMX", e);
+    }
+
+    public void unavailableMetadata(String project, RuntimeException e) {
+        if (!logger.isEnabledFor(Level.WARN)) return;
+        log(Level.WARN, "Could not fetch the card types and properties of Mingle project " + project +
+            "; its cards will not be checked before they are sent", e);
+    }
+
+    public void backfilled(String project, long upTo, long last, int created) {
+        if (!logger.isInfoEnabled()) return;
+        log(Level.INFO, "Backfilled " + project + "-" + upTo + " of " + last + "; " + created +
+            " cards created so far");
+    }
+
+    public void failedBackfill(String project, long from, long to, RuntimeException e) {
+        if (!logger.isEnabledFor(Level.ERROR)) return;
+        log(Level.ERROR, "Could not backfill " + project + "-" + from + " to " + project + "-" + to +
+            "; the backfill will carry on from there when it is next run", e);
+    }
+
+    public void unpublishedBackfill(Exception e) {
+        if (!logger.isEnabledFor(Level.WARN)) return;
+        log(Level.WARN, "Could not publish the backfill operation over JMX", e);
+    }
+
+    public void retryingWriteback(String issueKey, int attempt, long delayMillis) {
+        if (!logger.isEnabledFor(Level.WARN)) return;
+        log(Level.WARN, "Writeback " + attempt + " of the Mingle card URL to " + issueKey +
+            " failed; retrying in " + delayMillis + "ms");
+    }
+
+    public void failedWriteback(String issueKey, RuntimeException e) {
+        if (!logger.isEnabledFor(Level.ERROR)) return;
+        log(Level.ERROR, "Could not record the Mingle card URL on " + issueKey +
+            "; the card was created but the issue does not link to it", e);
+    }
+
+    public void droppedWriteback(String issueKey, String url) {
+        if (!logger.isEnabledFor(Level.ERROR)) return;
+        log(Level.ERROR, "Too many Mingle card URLs are waiting to be recorded; dropped " + url +
+            " for " + issueKey + ", so the card was created but the issue does not link to it");
+    }
+
+    public void span(String correlationId, Metrics.Stage stage, long micros) {
+        if (!logger.isInfoEnabled()) return;
+        log(Level.INFO, "Spent " + micros + "us in " + stage + " for " + correlationId);
+    }
+
+    // Waits up to the given time for everything logged so far to be written,
+    // returning whether it was.
+    public static boolean flush(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (unwritten.get() > 0) {
+            if (System.nanoTime() - deadline > 0) return false;
+            LockSupport.parkNanos(FULL_NANOS);
+        }
+        return true;
+    }
+
+    private static void log(Level level, String message) {
+        log(level, message, null);
+    }
+
+    private static void log(Level level, String message, Throwable e) {
+        Trace trace = Trace.current();
+        Map<Object, Object> properties = new HashMap<Object, Object>();
+        Hashtable context = MDC.getContext();
+        if (context != null) properties.putAll(context);
+        if (trace != null) {
+            message = "[" + trace.id() + "] " + message;
+            properties.put(CORRELATION_ID, trace.id());
+        }
+        LoggingEvent event = new LoggingEvent(FQCN, logger, System.currentTimeMillis(), level, message,
+                                              Thread.currentThread().getName(),
+                                              e == null ? null : new ThrowableInformation(e),
+                                              NDC.get(), LocationInfo.NA_LOCATION_INFO, properties);
+        unwritten.incrementAndGet();
+        while (!buffer.offer(event)) {
+            if (!level.isGreaterOrEqual(Level.WARN)) {
+                unwritten.decrementAndGet();
+                dropped.incrementAndGet();
+                return;
+            }
+            wake();
+            LockSupport.parkNanos(FULL_NANOS);
+        }
+        wake();
+    }
+
+    // Only costs a system call when the appender has run out of messages.
+    private static void wake() {
+        Thread thread = appender;
+        if (thread == null) {
+            start();
+        } else if (parked) {
+            parked = false;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    private static synchronized void start() {
+        if (appender != null) return;
+        Thread thread = new Thread(new Runnable() {
+                public void run() { append(); }
+            }, "mingle-connector-log");
+        thread.setDaemon(true);
+        appender = thread;
+        thread.start();
+    }
+
+    // Writes everything logged so far and stops the background thread, waiting up
+    // to the given time for it to finish. Returns whether it did.
+    public static boolean shutdown(long timeoutMillis) {
+        Thread thread;
+        synchronized (Log4JLogger.class) {
+            thread = appender;
+            appender = null;
+        }
+        if (thread == null) return true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Anything logged while it was stopping still needs writing.
+        if (buffer.size() > 0) wake();
+        return !thread.isAlive();
+    }
+
+    // Announces that it is about to park before looking at the buffer one last
+    // time, so that a message offered in between is sure to wake it.
+    private static void append() {
+        Thread self = Thread.currentThread();
+        while (true) {
+            LoggingEvent event = buffer.poll();
+            if (event == null) {
+                long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    logger.warn("Dropped " + lost + " log messages because too many were logged at once");
+                }
+                if (appender != self) return;
+                parked = true;
+                if (buffer.size() == 0 && appender == self) LockSupport.park();
+                parked = false;
+                continue;
+            }
+            try {
+                logger.callAppenders(event);
+            } catch (RuntimeException e) {
+                // log4j reports its appenders' failures itself; this thread must not die.
+            } finally {
+                unwritten.decrementAndGet();
+            }
+        }
     }
 }
@@ -23,4 +23,21 @@ public interface Logger {
     void cardCreated(String url);
     void settingCustomField(String issueKey, String fieldName, String value);
     void unmappableValue(String field, Object value);
+    void droppedEvent(String issueKey);
+    void failedEvent(String issueKey, RuntimeException e);
+    void deferredCard(String issueKey, RuntimeException e);
+    void discardedCard(String issueKey, RuntimeException e);
+    void coalescedEvent(String issueKey);
+    void retryingPost(String url, int attempt, long delayMillis);
+    void circuitOpened(String host);
+    void circuitClosed(String host);
+    void unpublishedMetrics(Exception e);
+    void unavailableMetadata(String project, RuntimeException e);
+    void backfilled(String project, long upTo, long last, int created);
+    void failedBackfill(String project, long from, long to, RuntimeException e);
+    void unpublishedBackfill(Exception e);
+    void retryingWriteback(String issueKey, int attempt, long delayMillis);
+    void failedWriteback(String issueKey, RuntimeException e);
+    void droppedWriteback(String issueKey, String url);
+    void span(String correlationId, Metrics.Stage stage, long micros);
 }
@@ -30,4 +30,18 @@ class LoggingWebClient implements Web {
         logger.webResponse(response.statusCode());
         return response;
     }
+
+    public Promise<Response> postAsync(String url, List params) {
+        logger.webPost(url, params);
+        return wrapped.postAsync(url, params).map(new Function<Response, Response>() {
+                public Response call(Response response) {
+                    logger.webResponse(response.statusCode());
+                    return response;
+                }
+            });
+    }
+
+    public String get(String url) {
+        return wrapped.get(url);
+    }
 }
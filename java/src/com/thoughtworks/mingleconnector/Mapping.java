@@ -14,15 +14,20 @@
 // 
 package com.thoughtworks.mingleconnector;
 
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 
+// Keys are compared without regard to case, through an index of case-folded keys
+// that is replaced rather than changed when an entry is added, so lookups never
+// see it half-built.
 public class Mapping {
     public static interface Receiver {
         void receive(String from, String to);
     }
 
-    private final Map<String, String> entries = new HashMap<String, String>();
+    private volatile Map<String, Entry> index = Collections.emptyMap();
     private Mapping() { }
 
     public static Mapping empty() {
@@ -38,36 +43,67 @@ public class Mapping {
     }
 
     public static Mapping parse(String string) {
-        Mapping mapping = new Mapping();
-        String[] list = string.trim().split(" *, *");
-        for(String entry : list) {
-            String[] pair  = entry.split(" *=> *");
-            if (pair.length < 2) continue;
-            mapping.add(pair[0], pair[1]);
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+        int start = 0;
+        while (start <= string.length()) {
+            int end = string.indexOf(',', start);
+            if (end < 0) end = string.length();
+            parseEntry(string, start, end, entries);
+            start = end + 1;
         }
+        Mapping mapping = new Mapping();
+        mapping.index = Collections.unmodifiableMap(entries);
         return mapping;
     }
 
+    private static void parseEntry(String string, int start, int end, Map<String, Entry> entries) {
+        String entry = string.substring(start, end).trim();
+        if (entry.length() == 0) return;
+        int arrow = entry.indexOf("=>");
+        if (arrow < 0 || entry.indexOf("=>", arrow + 2) >= 0) {
+            throw new IllegalArgumentException("'" + entry + "' is not of the form left-value=>right-value");
+        }
+        String from = entry.substring(0, arrow).trim(), to = entry.substring(arrow + 2).trim();
+        if (from.length() == 0 || to.length() == 0) {
+            throw new IllegalArgumentException("'" + entry + "' is not of the form left-value=>right-value");
+        }
+        if (entries.containsKey(fold(from))) {
+            throw new IllegalArgumentException("'" + from + "' is mapped more than once");
+        }
+        entries.put(fold(from), new Entry(from, to));
+    }
+
     public boolean isEmpty() {
-        return entries.isEmpty();
+        return index.isEmpty();
     }
 
-    public void add(String from, String to) {
-        entries.put(from, to);
+    public synchronized void add(String from, String to) {
+        Map<String, Entry> entries = new LinkedHashMap<String, Entry>(index);
+        entries.put(fold(from), new Entry(from, to));
+        index = Collections.unmodifiableMap(entries);
     }
 
     public Maybe<String> get(String from) {
-        for (Map.Entry<String, String> entry : entries.entrySet()) {
-            if(entry.getKey().equalsIgnoreCase(from)) {
-                return Maybe.definitely(entry.getValue());
-            }
-        }
-        return Maybe.nothing();
+        if (from == null) return Maybe.nothing();
+        Entry entry = index.get(fold(from));
+        if (entry == null) return Maybe.nothing();
+        return Maybe.definitely(entry.to);
     }
 
     public void each(Receiver receiver) {
-        for (Map.Entry<String, String> entry : entries.entrySet()) {
-            receiver.receive(entry.getKey(), entry.getValue());
+        for (Entry entry : index.values()) {
+            receiver.receive(entry.from, entry.to);
+        }
+    }
+
+    private static String fold(String key) {
+        return key.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static class Entry {
+        private final String from, to;
+        public Entry(String from, String to) {
+            this.from = from; this.to = to;
         }
     }
 }
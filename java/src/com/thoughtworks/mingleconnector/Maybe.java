@@ -31,7 +31,8 @@ public abstract class Maybe<T> {
         return definitely(f.call(s));
     }
     public static <T> Maybe<T> definitely(T t) { return new Definitely(t); }
-    public static <T> Maybe<T> nothing() { return new Nothing<T>(); }
+    public static <T> Maybe<T> nothing() { return (Maybe<T>) NOTHING; }
+    private static final Maybe NOTHING = new Nothing();
 
     public static class NoValue extends RuntimeException { }
 
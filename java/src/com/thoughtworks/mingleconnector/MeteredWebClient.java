@@ -0,0 +1,82 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Times each post to Mingle and counts the requests that failed by the status
+// code they failed with. Requests that gave up waiting for a connection or the
+// in-flight limit never reached Mingle, and are neither timed nor counted.
+class MeteredWebClient implements Web {
+    private final Web wrapped;
+    private final Metrics metrics;
+    public MeteredWebClient(Web wrapped, Metrics metrics) {
+        this.wrapped = wrapped;
+        this.metrics = metrics;
+    }
+
+    public Response post(String url, List params) {
+        long started = System.nanoTime();
+        Response response;
+        try {
+            response = wrapped.post(url, params);
+        } catch (WebClient.LocalLimitException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            metrics.since(Metrics.Stage.MINGLE_POST, started);
+            metrics.failure(Metrics.NO_RESPONSE);
+            throw e;
+        }
+        metrics.since(Metrics.Stage.MINGLE_POST, started);
+        if (response.statusCode() >= 400) metrics.failure(response.statusCode());
+        return response;
+    }
+
+    public Promise<Response> postAsync(String url, List params) {
+        final AtomicLong started = new AtomicLong(System.nanoTime());
+        Promise<Response> response = wrapped.postAsync(url, params);
+        response.whenStarted(new Runnable() {
+                public void run() { started.set(System.nanoTime()); }
+            });
+        response.then(new Promise.Callback<Response>() {
+                public void succeeded(Response response) {
+                    metrics.since(Metrics.Stage.MINGLE_POST, started.get());
+                    if (response.statusCode() >= 400) metrics.failure(response.statusCode());
+                }
+
+                public void failed(RuntimeException e) {
+                    if (e instanceof WebClient.LocalLimitException) return;
+                    metrics.since(Metrics.Stage.MINGLE_POST, started.get());
+                    metrics.failure(Metrics.NO_RESPONSE);
+                }
+            });
+        return response;
+    }
+
+    public String get(String url) {
+        try {
+            return wrapped.get(url);
+        } catch (WebClient.LocalLimitException e) {
+            throw e;
+        } catch (ResponseValidatingWebClient.FailedResponseException e) {
+            metrics.failure(e.statusCode());
+            throw e;
+        } catch (RuntimeException e) {
+            metrics.failure(Metrics.NO_RESPONSE);
+            throw e;
+        }
+    }
+}
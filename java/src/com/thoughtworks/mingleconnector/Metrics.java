@@ -0,0 +1,159 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counters and latency histograms for each stage that an event goes through.
+// Recording is a handful of atomic increments, so it is always on.
+public class Metrics implements MetricsMXBean {
+    public enum Stage { HANDOVER_DETECTION, CARD_ASSEMBLY, MINGLE_POST, WRITEBACK }
+
+    // Responses that never arrived, because the request failed, are counted
+    // against this status code.
+    public static final int NO_RESPONSE = 0;
+
+    private final AtomicLong eventsSeen = new AtomicLong(), handovers = new AtomicLong(),
+        coalescedEvents = new AtomicLong(), unmappableValues = new AtomicLong(),
+        droppedWritebacks = new AtomicLong();
+    private final ConcurrentMap<Integer, AtomicLong> failures =
+        new ConcurrentHashMap<Integer, AtomicLong>();
+    private final Histogram[] latencies = new Histogram[Stage.values().length];
+
+    public Metrics() {
+        for (int i = 0; i < latencies.length; i++) latencies[i] = new Histogram();
+    }
+
+    public void eventSeen() { eventsSeen.incrementAndGet(); }
+    public void handover() { handovers.incrementAndGet(); }
+    public void coalescedEvent() { coalescedEvents.incrementAndGet(); }
+    public void unmappableValue() { unmappableValues.incrementAndGet(); }
+    public void droppedWriteback() { droppedWritebacks.incrementAndGet(); }
+
+    public void failure(int statusCode) {
+        AtomicLong count = failures.get(statusCode);
+        if (count == null) {
+            AtomicLong fresh = new AtomicLong();
+            count = failures.putIfAbsent(statusCode, fresh);
+            if (count == null) count = fresh;
+        }
+        count.incrementAndGet();
+    }
+
+    // Records a stage that began at the given System.nanoTime(), and passes it on
+    // to the current trace in case it is being sampled.
+    public void since(Stage stage, long startNanos) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        latencies[stage.ordinal()].record(micros);
+        Trace trace = Trace.current();
+        if (trace != null) trace.span(stage, micros);
+    }
+
+    public Histogram latency(Stage stage) { return latencies[stage.ordinal()]; }
+
+    public long getEventsSeen() { return eventsSeen.get(); }
+    public long getHandovers() { return handovers.get(); }
+    public long getCoalescedEvents() { return coalescedEvents.get(); }
+    public long getUnmappableValues() { return unmappableValues.get(); }
+    public long getDroppedWritebacks() { return droppedWritebacks.get(); }
+
+    public Map<Integer, Long> getFailuresByStatusCode() {
+        Map<Integer, Long> result = new TreeMap<Integer, Long>();
+        for (Map.Entry<Integer, AtomicLong> entry : failures.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    public Map<String, Double> getHandoverDetectionLatency() {
+        return latency(Stage.HANDOVER_DETECTION).summary();
+    }
+    public Map<String, Double> getCardAssemblyLatency() { return latency(Stage.CARD_ASSEMBLY).summary(); }
+    public Map<String, Double> getMinglePostLatency() { return latency(Stage.MINGLE_POST).summary(); }
+    public Map<String, Double> getWritebackLatency() { return latency(Stage.WRITEBACK).summary(); }
+
+    // Microsecond latencies in buckets that are exact below 8 and otherwise
+    // split each power of two into eight, so any percentile read back is within
+    // an eighth of the true value.
+    public static class Histogram {
+        private static final int SUB_BUCKETS = 8, SUB_BITS = 3;
+        private final AtomicLongArray buckets = new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+        private final AtomicLong count = new AtomicLong(), total = new AtomicLong(),
+            max = new AtomicLong();
+
+        public void record(long micros) {
+            if (micros < 0) micros = 0;
+            buckets.incrementAndGet(bucket(micros));
+            count.incrementAndGet();
+            total.addAndGet(micros);
+            long seen;
+            while (micros > (seen = max.get()) && !max.compareAndSet(seen, micros));
+        }
+
+        public long count() { return count.get(); }
+        public long max() { return max.get(); }
+
+        public double mean() {
+            long n = count.get();
+            return n == 0 ? 0 : (double) total.get() / n;
+        }
+
+        // The smallest bucket bound below which the given fraction of recorded
+        // latencies fall.
+        public long percentile(double fraction) {
+            long n = 0;
+            long[] counts = new long[buckets.length()];
+            for (int i = 0; i < counts.length; i++) n += counts[i] = buckets.get(i);
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(fraction * n));
+            for (int i = 0; i < counts.length; i++) {
+                rank -= counts[i];
+                if (rank <= 0) return Math.min(upperBound(i), max.get());
+            }
+            return max.get();
+        }
+
+        public Map<String, Double> summary() {
+            Map<String, Double> summary = new LinkedHashMap<String, Double>();
+            summary.put("count", (double) count());
+            summary.put("mean", mean() / 1000);
+            summary.put("p50", percentile(0.5) / 1000.0);
+            summary.put("p99", percentile(0.99) / 1000.0);
+            summary.put("p999", percentile(0.999) / 1000.0);
+            summary.put("max", max() / 1000.0);
+            return summary;
+        }
+
+        static int bucket(long micros) {
+            if (micros < SUB_BUCKETS) return (int) micros;
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) return bucket;
+            int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+            return lower + (1L << (exponent - SUB_BITS)) - 1;
+        }
+    }
+}
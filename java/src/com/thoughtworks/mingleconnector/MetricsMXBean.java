@@ -0,0 +1,32 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.Map;
+
+// What the connector publishes over JMX. Latencies are summarised as the count,
+// mean, 50th, 99th and 99.9th percentiles and maximum, in milliseconds.
+public interface MetricsMXBean {
+    long getEventsSeen();
+    long getHandovers();
+    long getCoalescedEvents();
+    long getUnmappableValues();
+    long getDroppedWritebacks();
+    Map<Integer, Long> getFailuresByStatusCode();
+    Map<String, Double> getHandoverDetectionLatency();
+    Map<String, Double> getCardAssemblyLatency();
+    Map<String, Double> getMinglePostLatency();
+    Map<String, Double> getWritebackLatency();
+}
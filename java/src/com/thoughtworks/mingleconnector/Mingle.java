@@ -41,6 +41,9 @@ public class Mingle {
             this.api = api;
         }
 
+        public String server() { return server; }
+        public String id() { return id; }
+
         public Card addCard(String type, String name, String description) {
             return new Card(type, name, description);
         }
@@ -50,7 +53,7 @@ public class Mingle {
             private String name;
             private String description;
             private final Map<Object, Object> properties = new HashMap<Object, Object>();
-            private String url;
+            private volatile String url;
 
             public Card(String type, String name, String description) {
                 this.type = type;
@@ -62,6 +65,12 @@ public class Mingle {
                 properties.put(name, value);
             }
 
+            public Project project() { return Project.this; }
+            public String type() { return type; }
+            public String name() { return name; }
+            public String description() { return description; }
+            public Map<Object, Object> properties() { return properties; }
+
             public String url() {
                 return url;
             }
@@ -69,11 +78,40 @@ public class Mingle {
             public void save() {
                 url = api.createCard(server, id, type, name, description, properties);
             }
+
+            // Sends the card without waiting for Mingle. Its URL is set once the
+            // promise succeeds.
+            public Promise<String> saveAsync() {
+                return api.createCardAsync(server, id, type, name, description, properties)
+                    .map(new Function<String, String>() {
+                            public String call(String created) {
+                                return url = created;
+                            }
+                        });
+            }
         }
     }
 
     public interface API {
         String createCard(String server, String project, String type, String name,
                           String description, Map properties);
+
+        Promise<String> createCardAsync(String server, String project, String type, String name,
+                                        String description, Map properties);
+
+        // For APIs that can only create cards by waiting for Mingle, which then
+        // hand back promises that are already complete.
+        public abstract class Blocking implements API {
+            public Promise<String> createCardAsync(String server, String project, String type,
+                                                   String name, String description,
+                                                   Map properties) {
+                try {
+                    return Promise.of(createCard(server, project, type, name, description,
+                                                 properties));
+                } catch (RuntimeException e) {
+                    return Promise.failed(e);
+                }
+            }
+        }
     }
 }
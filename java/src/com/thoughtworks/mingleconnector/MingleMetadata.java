@@ -0,0 +1,261 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.helpers.DefaultHandler;
+
+// The card types and properties of each Mingle project, and the values allowed
+// for its managed properties. Cards are checked against them before they are
+// sent, so that a card Mingle would reject fails straight away with the reason,
+// and names that differ only in case are corrected.
+//
+// A project's metadata is fetched the first time a card is created in it and
+// refreshed in the background after that. Cards for a project whose metadata
+// could not be fetched are sent unchecked.
+public class MingleMetadata implements CardFactory.Validator {
+    public interface Source {
+        String get(String url);
+    }
+
+    public static class InvalidCardException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public InvalidCardException(String message) {
+            super(message);
+        }
+    }
+
+    private final Source source;
+    private final Logger logger;
+    private final long refreshMillis;
+    private final ConcurrentMap<String, Entry> projects = new ConcurrentHashMap<String, Entry>();
+    private final ScheduledExecutorService refresher;
+
+    public MingleMetadata(Source source, Logger logger, long refreshMillis) {
+        this.source = source;
+        this.logger = logger;
+        this.refreshMillis = refreshMillis;
+        this.refresher = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mingle-connector-metadata");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    public Mingle.Project.Card validate(Mingle.Project.Card card) {
+        Project project = entry(card.project()).project();
+        return project == null ? card : project.validate(card);
+    }
+
+    public void shutdown() {
+        refresher.shutdown();
+    }
+
+    // Fetches the metadata of every project seen so far again.
+    void refresh() {
+        for (Entry entry : projects.values()) entry.refresh();
+    }
+
+    private Entry entry(Mingle.Project project) {
+        String key = project.server() + " " + project.id();
+        Entry entry = projects.get(key);
+        if (entry != null) return entry;
+        final Entry fresh = new Entry(project.server(), project.id());
+        entry = projects.putIfAbsent(key, fresh);
+        if (entry != null) return entry;
+        if (refreshMillis > 0) {
+            refresher.scheduleWithFixedDelay(new Runnable() {
+                    public void run() { fresh.refresh(); }
+                }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+        }
+        return fresh;
+    }
+
+    // Only the first card for a project waits for its metadata. After that cards
+    // read whatever was fetched last, and refreshes are fetched without a lock and
+    // then swapped in, so that a slow Mingle never holds a card up.
+    private class Entry {
+        private final String server, id;
+        private volatile Project project;
+        private volatile boolean loaded;
+
+        public Entry(String server, String id) {
+            this.server = server; this.id = id;
+        }
+
+        public Project project() {
+            if (!loaded) {
+                synchronized (this) {
+                    if (!loaded) {
+                        refresh();
+                        loaded = true;
+                    }
+                }
+            }
+            return project;
+        }
+
+        // Keeps the metadata it has if the new metadata cannot be fetched.
+        public void refresh() {
+            String base = server + "/api/v2/projects/" + id;
+            Project fetched;
+            try {
+                fetched = new Project(id, document(source.get(base + "/card_types.xml")),
+                                      document(source.get(base + "/property_definitions.xml")));
+            } catch (RuntimeException e) {
+                logger.unavailableMetadata(id, e);
+                return;
+            }
+            project = fetched;
+        }
+    }
+
+    static class Project {
+        private final String id;
+        private final Map<String, String> types = new HashMap<String, String>();
+        private final Map<String, Property> properties = new HashMap<String, Property>();
+
+        public Project(String id, Element cardTypes, Element propertyDefinitions) {
+            this.id = id;
+            for (Element type : children(cardTypes, "card_type")) {
+                String name = text(child(type, "name"));
+                types.put(fold(name), name);
+            }
+            for (Element definition : children(propertyDefinitions, "property_definition")) {
+                Property property = new Property(definition);
+                properties.put(fold(property.name), property);
+            }
+        }
+
+        public Mingle.Project.Card validate(Mingle.Project.Card card) {
+            String type = types.get(fold(card.type()));
+            if (type == null) {
+                throw new InvalidCardException("Card type '" + card.type() + "' does not exist " +
+                                               "in Mingle project " + id);
+            }
+            Mingle.Project.Card valid = card.project().addCard(type, card.name(), card.description());
+            for (Map.Entry<Object, Object> entry : card.properties().entrySet()) {
+                String name = (String) entry.getKey(), value = (String) entry.getValue();
+                Property property = properties.get(fold(name));
+                if (property == null) {
+                    throw new InvalidCardException("Property '" + name + "' does not exist in " +
+                                                   "Mingle project " + id);
+                }
+                valid.property(property.name, property.validate(type, value, id));
+            }
+            return valid;
+        }
+    }
+
+    private static class Property {
+        public final String name;
+        private final Set<String> types = new HashSet<String>();
+        private final Map<String, String> values;
+
+        public Property(Element definition) {
+            name = text(child(definition, "name"));
+            for (Element type : children(child(definition, "card_types"), "card_type")) {
+                types.add(fold(text(child(type, "name"))));
+            }
+            if (!"true".equals(text(child(definition, "is_managed")))) {
+                values = null;
+                return;
+            }
+            values = new HashMap<String, String>();
+            for (Element value : children(child(definition, "property_value_details"),
+                                          "property_value")) {
+                String allowed = text(child(value, "value"));
+                values.put(fold(allowed), allowed);
+            }
+        }
+
+        public String validate(String type, String value, String project) {
+            if (!types.isEmpty() && !types.contains(fold(type))) {
+                throw new InvalidCardException("Property '" + name + "' does not apply to '" +
+                                               type + "' cards in Mingle project " + project);
+            }
+            if (values == null || value == null) return value;
+            String allowed = values.get(fold(value));
+            if (allowed == null) {
+                throw new InvalidCardException("'" + value + "' is not a value of property '" +
+                                               name + "' in Mingle project " + project);
+            }
+            return allowed;
+        }
+    }
+
+    static Element document(String xml) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setExpandEntityReferences(false);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            builder.setErrorHandler(new DefaultHandler());
+            return builder.parse(new ByteArrayInputStream(xml.getBytes("UTF-8"))).getDocumentElement();
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        } catch (Exception e) {
+            throw new RuntimeException("Could not read Mingle's answer: " + e.getMessage(), e);
+        }
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        if (parent == null) return Collections.emptyList();
+        List<Element> children = new ArrayList<Element>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element && node.getNodeName().equals(name)) {
+                children.add((Element) node);
+            }
+        }
+        return children;
+    }
+
+    private static Element child(Element parent, String name) {
+        List<Element> children = children(parent, name);
+        return children.isEmpty() ? null : children.get(0);
+    }
+
+    private static String text(Element element) {
+        return element == null ? "" : element.getTextContent().trim();
+    }
+
+    private static String fold(String name) {
+        return name == null ? "" : name.toLowerCase(Locale.ENGLISH);
+    }
+}
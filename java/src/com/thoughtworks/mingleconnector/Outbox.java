@@ -0,0 +1,69 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public interface Outbox {
+    Entry record(String issueKey, Mingle.Project.Card card);
+    void confirm(Entry entry);
+    void retryLater(Entry entry, RuntimeException failure);
+    void shutdown();
+
+    public interface Writeback {
+        void mingleUrl(String issueKey, String url);
+    }
+
+    public static class Entry {
+        public final long id;
+        public final String issueKey, server, project, type, name, description;
+        public final Map<String, String> properties;
+
+        public Entry(long id, String issueKey, String server, String project, String type,
+                     String name, String description, Map<String, String> properties) {
+            this.id = id; this.issueKey = issueKey; this.server = server; this.project = project;
+            this.type = type; this.name = name; this.description = description;
+            this.properties = Collections.unmodifiableMap(new LinkedHashMap<String, String>(properties));
+        }
+
+        public Entry(long id, String issueKey, Mingle.Project.Card card) {
+            this(id, issueKey, card.project().server(), card.project().id(), card.type(),
+                 card.name(), card.description(), strings(card.properties()));
+        }
+
+        public String send(Mingle.API api) {
+            return api.createCard(server, project, type, name, description, properties);
+        }
+
+        private static Map<String, String> strings(Map<Object, Object> properties) {
+            Map<String, String> strings = new LinkedHashMap<String, String>();
+            for (Map.Entry<Object, Object> property : properties.entrySet()) {
+                strings.put((String) property.getKey(), (String) property.getValue());
+            }
+            return strings;
+        }
+    }
+
+    // Nothing is recorded, so a failed card creation is reported straight back
+    // to the caller.
+    public static class None implements Outbox {
+        public Entry record(String issueKey, Mingle.Project.Card card) { return null; }
+        public void confirm(Entry entry) { }
+        public void retryLater(Entry entry, RuntimeException failure) { throw failure; }
+        public void shutdown() { }
+    }
+}
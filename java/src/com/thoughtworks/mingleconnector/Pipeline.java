@@ -0,0 +1,288 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.atlassian.jira.event.issue.IssueEvent;
+
+// Everything needed to send cards to Mingle, built once from the listener's
+// configuration. Listeners whose configurations differ only in their rules share
+// a pipeline, and with it their HTTP connections and background threads. The
+// rules themselves are compiled separately, so that they can be replaced without
+// disturbing the pipeline.
+public class Pipeline {
+    private static final long OUTBOX_SEGMENT_BYTES = 4 * 1024 * 1024;
+    private static final long OUTBOX_RETRY_MILLIS = 30 * 1000, LOG_SHUTDOWN_MILLIS = 5000;
+    private static final int DUPLICATE_ISSUES = 10000, BACKFILL_PAGE = 200;
+    private static final int CIRCUIT_WINDOW = 20, CIRCUIT_MINIMUM_CALLS = 5, RETRIES = 2;
+    private static final double CIRCUIT_FAILURE_RATIO = 0.5;
+    private static final long CIRCUIT_OPEN_MILLIS = 30 * 1000, RETRY_BACKOFF_MILLIS = 500;
+    private static final int WRITEBACK_BATCH = 100, WRITEBACK_RETRIES = 5, WRITEBACK_PENDING = 10000;
+    private static final Map<Map, Pipeline> shared = new HashMap<Map, Pipeline>();
+    private static int published; // guarded by Pipeline.class, as pipelines are built in acquire
+
+    public static synchronized Pipeline acquire(Config config) {
+        Map key = config.shared();
+        Pipeline pipeline = shared.get(key);
+        if (pipeline == null) {
+            pipeline = new Pipeline(key, config, new Log4JLogger());
+            shared.put(key, pipeline);
+        } else {
+            // JIRA initialises listeners again when its configuration changes.
+            pipeline.components.invalidate();
+        }
+        pipeline.users++;
+        return pipeline;
+    }
+
+    // Once the last pipeline is released, the log's background thread is stopped
+    // too, after writing what the pipeline logged while shutting down.
+    public void release() {
+        boolean last;
+        synchronized (Pipeline.class) {
+            if (--users > 0) return;
+            shared.remove(key);
+            last = shared.isEmpty();
+        }
+        unpublish(metricsName);
+        unpublish(backfillName);
+        if (async != null) async.shutdown();
+        outbox.shutdown();
+        writebacks.shutdown();
+        if (batching != null) batching.shutdown();
+        if (metadata != null) metadata.shutdown();
+        client.shutdown();
+        if (last) Log4JLogger.shutdown(LOG_SHUTDOWN_MILLIS);
+    }
+
+    private final Map key;
+    private final Config config;
+    private final Logger logger;
+    private final Metrics metrics = new Metrics();
+    private final Jira.Components components;
+    private final ObjectName metricsName, backfillName;
+    private final WebClient client;
+    private final Web web;
+    private final BatchingAPI batching;
+    private final MingleMetadata metadata;
+    private final Mingle.API api;
+    private final Outbox outbox;
+    private final AsyncDispatcher async;
+    private final Writebacks writebacks;
+    private volatile Rules rules;
+    private int users;
+
+    private Pipeline(Map key, Config config, Logger logger) {
+        this.key = key;
+        this.config = config;
+        this.logger = logger;
+        this.components = new Jira.Components(config.jiraCacheTimeout());
+        this.client = new WebClient(config.user(), config.password(),
+                                    config.connectionsPerHost(), config.totalConnections(),
+                                    config.idleConnectionTimeout(), config.connectTimeout(),
+                                    config.readTimeout(), config.inFlightLimit(),
+                                    config.compressRequests());
+        this.web = web();
+        Mingle.API direct = new WebAPI(web);
+        this.batching = config.batching()
+            ? new BatchingAPI(direct, config.batchWindow(), config.batchSize(),
+                              config.connectionsPerHost(), batchWaitMillis())
+            : null;
+        this.api = batching == null ? direct : batching;
+        this.metadata = config.validating() ? metadata() : null;
+        this.outbox = outbox();
+        this.writebacks = config.deferringWriteback()
+            ? new BatchingWritebacks(metrics, logger, config.writebackWindow(), WRITEBACK_BATCH,
+                                     WRITEBACK_RETRIES, WRITEBACK_PENDING)
+            : new Writebacks.Immediate(metrics);
+        this.async = config.asynchronous()
+            ? new AsyncDispatcher(logger, config.dispatchThreads(), config.dispatchQueueSize(),
+                                  config.dispatchOverflow(), config.dispatchTimeout())
+            : null;
+        int number = ++published;
+        this.metricsName = publish("Metrics", number, metrics);
+        this.backfillName = publish("Backfill", number, new BackfillMXBean() {
+                public String backfill(String jiraProject) {
+                    Rules current = rules;
+                    if (current == null) throw new IllegalStateException("Not configured yet");
+                    return current.backfill(jiraProject);
+                }
+            });
+    }
+
+    public Metrics metrics() { return metrics; }
+
+    // Backfills use the rules the pipeline was given last.
+    public Rules rules(Config config) {
+        rules = new Rules(config);
+        return rules;
+    }
+
+    // The mappings of one configuration, compiled into the workflow and card
+    // factory that events are handled with. An event is handled entirely by the
+    // rules it arrived under, even if the listener has been given new ones since.
+    public class Rules {
+        private final Event.Workflow workflow;
+        private final EventHandler eventHandler;
+        private final Dispatcher handler;
+        private final Mapping handoverStatuses;
+        private final int backfillThreads;
+
+        private Rules(Config config) {
+            this.workflow = workflow(config);
+            this.eventHandler = eventHandler(config);
+            this.handler = new Dispatcher.Synchronous(eventHandler);
+            this.handoverStatuses = config.handoverStatuses();
+            this.backfillThreads = config.backfillThreads();
+        }
+
+        public Pipeline pipeline() { return Pipeline.this; }
+
+        // Each event gets a trace of its own, which goes with it if it is handled
+        // in the background.
+        public void handle(IssueEvent event) {
+            Trace previous = trace().enter();
+            try {
+                Event handled = new Event(new Jira.Issue(event.getIssue(), components, logger),
+                                          new Jira.Changes(event), workflow);
+                if (async == null) {
+                    handler.dispatch(handled);
+                } else {
+                    async.dispatch(handled, handler);
+                }
+            } finally {
+                Trace.resume(previous);
+            }
+        }
+
+        // Cards are created the same way as for events, but on the backfill's own
+        // threads. The checkpoint is kept with the outbox when there is one.
+        public String backfill(String jiraProject) {
+            String project = jiraProject.trim().toUpperCase();
+            String status = handoverStatuses.get(project)
+                .force(new IllegalArgumentException("Unknown project " + jiraProject));
+            File directory = config.durable()
+                ? config.outboxDirectory() : new File(System.getProperty("java.io.tmpdir"));
+            return new Backfill(new Jira.Backlog(components, logger), new Backfill.Handler() {
+                    public void handover(Issue issue) {
+                        Trace previous = trace().enter();
+                        try {
+                            eventHandler.handover(issue);
+                        } finally {
+                            Trace.resume(previous);
+                        }
+                    }
+                }, directory, backfillThreads, BACKFILL_PAGE, logger).run(project, status);
+        }
+    }
+
+    private Trace trace() {
+        return Trace.start(logger, config.traceSamplePercent());
+    }
+
+    private Event.Workflow workflow(Config config) {
+        Workflow workflow = new Workflow(config.handoverStatuses());
+        if (config.duplicateWindow() == 0) return workflow;
+        return new CoalescingWorkflow(workflow, config.duplicateWindow(), DUPLICATE_ISSUES, logger,
+                                      metrics);
+    }
+
+    // Long enough for one full batch to be sent, each card taking as long as
+    // Mingle is allowed to. Callers wait this long for each batch ahead of them.
+    private long batchWaitMillis() {
+        return config.batchWindow() + (long) Math.max(config.batchSize(), 1) *
+            (config.connectTimeout() + config.readTimeout()) * (RETRIES + 1);
+    }
+
+    private Outbox outbox() {
+        if (!config.durable()) return new Outbox.None();
+        JournalOutbox outbox = new JournalOutbox(config.outboxDirectory(), OUTBOX_SEGMENT_BYTES,
+                                                 api, new Jira.Writeback(components, logger),
+                                                 logger);
+        outbox.start(OUTBOX_RETRY_MILLIS);
+        return outbox;
+    }
+
+    private EventHandler eventHandler(Config config) {
+        final Mingle mingle = new Mingle(api, config.mingle());
+
+        ProjectMap projectMap = new SimpleProjectMap(config.projects(), mingle);
+        return new EventHandler(logger,
+                                new CardFactory(config.types(), config.properties(),
+                                                projectMap, config.initialCardValues(),
+                                                config.priorities(), logger, metrics,
+                                                metadata == null
+                                                    ? CardFactory.Validator.NONE : metadata,
+                                                config.descriptionLimit()),
+                                outbox, metrics, writebacks);
+    }
+
+    // Metadata is fetched through the same circuit breaker and metrics as cards
+    // are sent through, so that it is not fetched regardless while Mingle is down.
+    private MingleMetadata metadata() {
+        return new MingleMetadata(new MingleMetadata.Source() {
+                public String get(String url) { return web.get(url); }
+            }, logger, config.metadataRefresh());
+    }
+
+    // Calls taking over half the read timeout count as slow; with no read timeout,
+    // none do.
+    private Web web() {
+        return new ResponseValidatingWebClient(
+                        new CircuitBreakingWebClient(
+                              new LoggingWebClient(
+                                    new MeteredWebClient(client, metrics),
+                                    logger),
+                              logger, CIRCUIT_WINDOW, CIRCUIT_MINIMUM_CALLS, CIRCUIT_FAILURE_RATIO,
+                              CIRCUIT_OPEN_MILLIS, config.readTimeout() / 2, RETRIES,
+                              RETRY_BACKOFF_MILLIS));
+    }
+
+    private ObjectName publish(String type, int number, Object bean) {
+        try {
+            ObjectName name = new ObjectName("com.thoughtworks.mingleconnector:type=" + type +
+                                             ",pipeline=" + number);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, name);
+            return name;
+        } catch (JMException e) {
+            unpublished(type, e);
+            return null;
+        }
+    }
+
+    private void unpublish(ObjectName name) {
+        if (name == null) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            unpublished(name.getKeyProperty("type"), e);
+        }
+    }
+
+    private void unpublished(String type, JMException e) {
+        if (type.equals("Backfill")) {
+            logger.unpublishedBackfill(e);
+        } else {
+            logger.unpublishedMetrics(e);
+        }
+    }
+}
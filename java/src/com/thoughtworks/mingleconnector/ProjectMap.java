@@ -14,6 +14,10 @@
 // 
 package com.thoughtworks.mingleconnector;
 
+import java.util.List;
+
+// An issue may be sent to more than one Mingle project, in which case a card is
+// created in each of them.
 interface ProjectMap { 
-  Mingle.Project get(String jiraProject);
+  List<Mingle.Project> get(String jiraProject);
 }
@@ -0,0 +1,190 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// The eventual result of a request: a value, or the exception it failed with.
+// Callbacks run on whichever thread completes the promise, or straight away on
+// the caller's thread if it is already complete, so they should be quick. A
+// request that is queued before it is carried out also says when it starts, so
+// that time spent in the queue can be told apart from time spent on the request.
+public class Promise<T> implements Future<T> {
+    public interface Callback<T> {
+        void succeeded(T value);
+        void failed(RuntimeException e);
+    }
+
+    private final CountDownLatch completion = new CountDownLatch(1);
+    private List<Callback<? super T>> callbacks = new ArrayList<Callback<? super T>>();
+    private List<Runnable> starts = new ArrayList<Runnable>(); // null once started or complete
+    private boolean started;
+    private T value;
+    private RuntimeException failure;
+
+    public static <T> Promise<T> of(T value) {
+        Promise<T> promise = new Promise<T>();
+        promise.succeed(value);
+        return promise;
+    }
+
+    public static <T> Promise<T> failed(RuntimeException e) {
+        Promise<T> promise = new Promise<T>();
+        promise.fail(e);
+        return promise;
+    }
+
+    public boolean succeed(T value) {
+        return complete(value, null);
+    }
+
+    public boolean fail(RuntimeException e) {
+        return complete(null, e);
+    }
+
+    public void start() {
+        List<Runnable> waiting;
+        synchronized (this) {
+            if (starts == null) return;
+            waiting = starts;
+            starts = null;
+            started = true;
+        }
+        for (Runnable callback : waiting) callback.run();
+    }
+
+    // Runs the callback when the request starts, straight away if it already has,
+    // or never if it completed without saying that it started.
+    public void whenStarted(Runnable callback) {
+        synchronized (this) {
+            if (starts != null) {
+                starts.add(callback);
+                return;
+            }
+            if (!started) return;
+        }
+        callback.run();
+    }
+
+    public void then(Callback<? super T> callback) {
+        synchronized (this) {
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        deliver(callback);
+    }
+
+    // A promise of what the function makes of this one's value. If the function
+    // throws, or this promise fails, so does the new one.
+    public <R> Promise<R> map(final Function<? super T, R> function) {
+        final Promise<R> mapped = new Promise<R>();
+        whenStarted(new Runnable() {
+                public void run() { mapped.start(); }
+            });
+        then(new Callback<T>() {
+                public void succeeded(T value) {
+                    R result;
+                    try {
+                        result = function.call(value);
+                    } catch (RuntimeException e) {
+                        mapped.fail(e);
+                        return;
+                    }
+                    mapped.succeed(result);
+                }
+
+                public void failed(RuntimeException e) { mapped.fail(e); }
+            });
+        return mapped;
+    }
+
+    // Waits for the value, throwing the exception the promise failed with.
+    public T join() {
+        try {
+            completion.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a response", e);
+        }
+        if (failure != null) throw failure;
+        return value;
+    }
+
+    // As join(), but gives up with an exception after the given time.
+    public T join(long timeout, TimeUnit unit) {
+        try {
+            if (!completion.await(timeout, unit)) {
+                throw new RuntimeException("Gave up waiting for a response after " +
+                                           unit.toMillis(timeout) + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a response", e);
+        }
+        if (failure != null) throw failure;
+        return value;
+    }
+
+    public T get() throws InterruptedException, ExecutionException {
+        completion.await();
+        return result();
+    }
+
+    public T get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+        if (!completion.await(timeout, unit)) throw new TimeoutException();
+        return result();
+    }
+
+    public boolean isDone() { return completion.getCount() == 0; }
+    public boolean cancel(boolean mayInterrupt) { return false; }
+    public boolean isCancelled() { return false; }
+
+    private boolean complete(T value, RuntimeException failure) {
+        List<Callback<? super T>> waiting;
+        synchronized (this) {
+            if (callbacks == null) return false;
+            starts = null;
+            this.value = value;
+            this.failure = failure;
+            waiting = callbacks;
+            callbacks = null;
+        }
+        completion.countDown();
+        for (Callback<? super T> callback : waiting) deliver(callback);
+        return true;
+    }
+
+    private void deliver(Callback<? super T> callback) {
+        if (failure != null) {
+            callback.failed(failure);
+        } else {
+            callback.succeeded(value);
+        }
+    }
+
+    private T result() throws ExecutionException {
+        if (failure != null) throw new ExecutionException(failure);
+        return value;
+    }
+}
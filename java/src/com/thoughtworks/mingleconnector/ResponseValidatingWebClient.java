@@ -17,6 +17,24 @@ package com.thoughtworks.mingleconnector;
 import java.util.List;
 
 public class ResponseValidatingWebClient implements Web {
+    // Mingle answered, but with a failure. Client errors, other than timeouts and
+    // rate limiting, will fail the same way however often they are sent.
+    public static class FailedResponseException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final int statusCode;
+
+        public FailedResponseException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        public int statusCode() { return statusCode; }
+
+        public boolean permanent() {
+            return statusCode >= 400 && statusCode < 500 && statusCode != 408 && statusCode != 429;
+        }
+    }
+
     private final Web decorated;
 
     public ResponseValidatingWebClient(Web decorated) {
@@ -24,9 +42,24 @@ public class ResponseValidatingWebClient implements Web {
     }
 
     public Web.Response post(String url, List params) {
-        Web.Response response = decorated.post(url, params);
+        return validate(url, decorated.post(url, params));
+    }
+
+    public Promise<Web.Response> postAsync(final String url, List params) {
+        return decorated.postAsync(url, params).map(new Function<Web.Response, Web.Response>() {
+                public Web.Response call(Web.Response response) {
+                    return validate(url, response);
+                }
+            });
+    }
+
+    public String get(String url) {
+        return decorated.get(url);
+    }
+
+    private static Web.Response validate(String url, Web.Response response) {
         if(response.statusCode() >= 400)
-            throw new RuntimeException("Got " + response.statusCode() +
+            throw new FailedResponseException(response.statusCode(), "Got " + response.statusCode() +
                                        " status code for request to " + url + " with body '" + response.body() + "'.");
         return response;
     }
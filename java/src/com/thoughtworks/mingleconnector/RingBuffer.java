@@ -0,0 +1,88 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// A bounded queue that neither locks nor allocates. Each slot carries a sequence
+// number that says whether it is waiting to be written or to be read, so that a
+// writer only has to claim the next position and never waits for a reader, or
+// the other way round. Offering to a full buffer fails at once, leaving the
+// caller to decide whether to drop the item or try again.
+public class RingBuffer<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+
+    // The capacity is rounded up to a power of two.
+    public RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        slots = new AtomicReferenceArray<T>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+        mask = size - 1;
+    }
+
+    public int capacity() { return mask + 1; }
+
+    public boolean offer(T item) {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long waiting = sequences.get(slot) - position;
+            if (waiting == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set(slot, item);
+                    sequences.set(slot, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (waiting < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    // Returns null when the buffer is empty.
+    public T poll() {
+        long position = head.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long waiting = sequences.get(slot) - (position + 1);
+            if (waiting == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    T item = slots.get(slot);
+                    slots.set(slot, null);
+                    sequences.set(slot, position + mask + 1);
+                    return item;
+                }
+                position = head.get();
+            } else if (waiting < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    public int size() {
+        return (int) Math.max(tail.get() - head.get(), 0);
+    }
+}
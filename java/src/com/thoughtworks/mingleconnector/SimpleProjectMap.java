@@ -14,8 +14,11 @@
 // 
 package com.thoughtworks.mingleconnector;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
 
+// A JIRA project may be mapped to several Mingle projects, separated by '|', as
+// in SUP=>platform|web|mobile.
 public class SimpleProjectMap implements ProjectMap {
     private final Mapping map;
     private final Mingle mingle;
@@ -24,8 +27,15 @@ public class SimpleProjectMap implements ProjectMap {
         this.map = map; this.mingle = mingle;
     }
 
-    public Mingle.Project get(String jiraProject) {
-        return mingle.project(identifier(jiraProject));
+    public List<Mingle.Project> get(String jiraProject) {
+        List<Mingle.Project> projects = new ArrayList<Mingle.Project>();
+        for (String identifier : identifier(jiraProject).split("\\|")) {
+            if (identifier.trim().length() > 0) projects.add(mingle.project(identifier.trim()));
+        }
+        if (projects.isEmpty()) {
+            throw new IllegalArgumentException("No Mingle project for " + jiraProject);
+        }
+        return projects;
     }
 
     private String identifier(final String jiraProject) {
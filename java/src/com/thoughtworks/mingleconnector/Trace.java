@@ -0,0 +1,98 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The correlation ID of one event, which follows it from the JIRA transition,
+// through the post to Mingle and onto the card, and back again when the daemon
+// reads the card. The trace being worked on is kept per thread, and whatever
+// hands an event's work to another thread carries the trace across with it. A
+// sample of traces also log how long each stage of their event took.
+//
+// IDs are a random prefix, drawn once per JVM, followed by a counter, so that
+// starting a trace neither locks nor reads the secure random generator. Each
+// thread samples with a generator of its own for the same reason.
+public class Trace {
+    private static final ThreadLocal<Trace> current = new ThreadLocal<Trace>();
+    private static final String PREFIX =
+        Long.toHexString(UUID.randomUUID().getMostSignificantBits()) + "-";
+    private static final AtomicLong count = new AtomicLong();
+    private static final ThreadLocal<Random> sampler = new ThreadLocal<Random>() {
+            protected Random initialValue() { return new Random(); }
+        };
+
+    private final String id;
+    private final Logger spans;
+
+    // Spans are only logged if a logger is given.
+    public Trace(String id, Logger spans) {
+        this.id = id;
+        this.spans = spans;
+    }
+
+    public static Trace start(Logger logger, int samplePercent) {
+        boolean sampled = samplePercent > 0 && sampler.get().nextInt(100) < samplePercent;
+        return new Trace(PREFIX + Long.toHexString(count.incrementAndGet()), sampled ? logger : null);
+    }
+
+    // Returns null when no event is being worked on.
+    public static Trace current() {
+        return current.get();
+    }
+
+    public String id() { return id; }
+    public boolean sampled() { return spans != null; }
+
+    public void span(Metrics.Stage stage, long micros) {
+        if (spans != null) spans.span(id, stage, micros);
+    }
+
+    // Makes this the current trace, returning the one it replaces so that it can
+    // be given back to resume() once the work is done.
+    public Trace enter() {
+        Trace previous = current.get();
+        current.set(this);
+        return previous;
+    }
+
+    public static void resume(Trace previous) {
+        if (previous == null) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    // Runs the work under whichever trace is current now, wherever it is run.
+    public static Runnable carry(final Runnable work) {
+        final Trace trace = current.get();
+        if (trace == null) return work;
+        return new Runnable() {
+            public void run() {
+                Trace previous = trace.enter();
+                try {
+                    work.run();
+                } finally {
+                    resume(previous);
+                }
+            }
+        };
+    }
+
+    public String toString() { return id; }
+}
@@ -19,7 +19,26 @@ import java.util.List;
 public interface Web {
     public Response post(String url, List params);
 
+    // Sends the request without waiting for the response.
+    public Promise<Response> postAsync(String url, List params);
+
+    // Returns the body of the page, which is expected to be small.
+    public String get(String url);
+
+    // For clients that can only wait for responses, which they then hand back
+    // already complete.
+    public abstract class Blocking implements Web {
+        public Promise<Response> postAsync(String url, List params) {
+            try {
+                return Promise.of(post(url, params));
+            } catch (RuntimeException e) {
+                return Promise.failed(e);
+            }
+        }
+    }
+
     public class Param {
+        private static final int SHOWN = 200;
         public final String name;
         public final String value;
 
@@ -27,8 +46,12 @@ public interface Web {
             this.name = name; this.value = value;
         }
 
+        // Only the start of a long value is shown, so that logging a card does not
+        // copy its whole description.
         public String toString() {
-            return "("+name+", "+value+")";
+            if (value == null || value.length() <= SHOWN) return "("+name+", "+value+")";
+            return "("+name+", "+value.substring(0, SHOWN)+"... "+(value.length() - SHOWN)+
+                " more characters)";
         }
 
         public boolean equals(Object that) {
@@ -17,9 +17,9 @@ package com.thoughtworks.mingleconnector;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.*;
 
 public class WebAPI implements Mingle.API {
+    private static final String API_PATH = "/api/v2", XML = ".xml";
     private final Web web;
     public WebAPI(Web web) {
         this.web = web;
@@ -32,12 +32,22 @@ public class WebAPI implements Mingle.API {
         return apiToUI(response.header("Location"));
     }
 
+    public Promise<String> createCardAsync(String server, String project, String type, String name,
+                                           String description, Map properties) {
+        return web.postAsync(urlFor(server, project), paramsFor(type, name, description, properties))
+            .map(new Function<Web.Response, String>() {
+                    public String call(Web.Response response) {
+                        return apiToUI(response.header("Location"));
+                    }
+                });
+    }
+
     private static String urlFor(String server, String project) {
         return server+"/api/v2/projects/"+project+"/cards.xml";
     }
 
-    private static List<Web.Param> paramsFor(String type, String name, String description,
-                                             Map properties) {
+    static List<Web.Param> paramsFor(String type, String name, String description,
+                                     Map properties) {
         List<Web.Param> params = new ArrayList<Web.Param>();
         params.add(new Web.Param("card[name]", name));
         params.add(new Web.Param("card[card_type_name]", type));
@@ -50,11 +60,14 @@ public class WebAPI implements Mingle.API {
         return params;
     }
 
-    private String apiToUI(String apiURL) {
-        Pattern pattern = Pattern.compile("(.*)/api/v2(.*).xml");
-        Matcher matcher = pattern.matcher(apiURL);
-        matcher.matches();
-        return matcher.group(1) + matcher.group(2);
+    // http://server/api/v2/projects/p/cards/1.xml becomes http://server/projects/p/cards/1
+    private static String apiToUI(String apiURL) {
+        int api = apiURL == null ? -1 : apiURL.lastIndexOf(API_PATH);
+        if (api < 0 || !apiURL.endsWith(XML)) {
+            throw new RuntimeException("Unexpected location for a new card: " + apiURL);
+        }
+        return apiURL.substring(0, api) +
+            apiURL.substring(api + API_PATH.length(), apiURL.length() - XML.length());
     }
 }
 
@@ -15,76 +15,257 @@
 package com.thoughtworks.mingleconnector;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
-import org.apache.commons.httpclient.NameValuePair;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
 
 public class WebClient implements Web {
-    private final HttpClient client = new HttpClient();
+    // Thrown when a request gives up waiting for this client's own resources, a
+    // pooled connection or its share of the in-flight limit. The request never
+    // reached Mingle, so it says nothing about Mingle's health.
+    public static class LocalLimitException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public LocalLimitException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    public static class InFlightLimitException extends LocalLimitException {
+        private static final long serialVersionUID = 1L;
+
+        public InFlightLimitException(String url) {
+            super("Gave up waiting to post to " + url + ", as too much is being sent to Mingle already",
+                  null);
+        }
+    }
+
+    public static final int CONNECTIONS_PER_HOST = 8, TOTAL_CONNECTIONS = 32;
+    public static final long IDLE_TIMEOUT_MILLIS = 60 * 1000;
+    public static final int CONNECT_TIMEOUT_MILLIS = 10 * 1000, READ_TIMEOUT_MILLIS = 30 * 1000;
+    public static final int IN_FLIGHT_KILOBYTES = 16 * 1024;
+    public static final String CORRELATION_HEADER = "X-Correlation-ID";
+    private static final String GZIP = "gzip";
+
+    private final MultiThreadedHttpConnectionManager connections =
+        new MultiThreadedHttpConnectionManager();
+    private final HttpClient client = new HttpClient(connections);
+    private final IdleConnectionTimeoutThread evictor = new IdleConnectionTimeoutThread();
+    private final ThreadPoolExecutor senders;
+    private final Semaphore inFlight;
+    private final int inFlightKilobytes, connectTimeoutMillis;
+    private final boolean compressRequests;
+
     public WebClient(String username, String password) {
+        this(username, password, CONNECTIONS_PER_HOST, TOTAL_CONNECTIONS, IDLE_TIMEOUT_MILLIS,
+             CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS, IN_FLIGHT_KILOBYTES, false);
+    }
+
+    // At most inFlightKilobytes of request bodies are sent at once, so that a few
+    // huge cards cannot fill the heap; 0 means no limit. Responses are always
+    // asked for gzipped, but request bodies are only compressed if asked, as not
+    // every server in front of Mingle accepts them.
+    public WebClient(String username, String password, int connectionsPerHost,
+                     int totalConnections, long idleTimeoutMillis, int connectTimeoutMillis,
+                     int readTimeoutMillis, int inFlightKilobytes, boolean compressRequests) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.compressRequests = compressRequests;
+        this.inFlightKilobytes = inFlightKilobytes;
+        this.inFlight = inFlightKilobytes > 0 ? new Semaphore(inFlightKilobytes, true) : null;
         setCredentials(username, password);
+        client.getParams().setConnectionManagerTimeout(connectTimeoutMillis);
+        HttpConnectionManagerParams params = connections.getParams();
+        params.setConnectionTimeout(connectTimeoutMillis);
+        params.setSoTimeout(readTimeoutMillis);
+        params.setDefaultMaxConnectionsPerHost(Math.max(connectionsPerHost, 1));
+        params.setMaxTotalConnections(Math.max(totalConnections, connectionsPerHost));
+        evictor.setConnectionTimeout(idleTimeoutMillis);
+        evictor.setTimeoutInterval(Math.max(idleTimeoutMillis / 2, 1000));
+        evictor.addConnectionManager(connections);
+        evictor.start();
+        int threads = Math.max(totalConnections, 1);
+        senders = new ThreadPoolExecutor(threads, threads, IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS,
+                                         new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "mingle-connector-http-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        senders.allowCoreThreadTimeOut(true);
     }
 
-    public Response post(String url, List params) {
-        HttpMethod request = postRequest(url, params);
-        execute(request);
-        return new HttpClientResponse(request);
+    public void shutdown() {
+        senders.shutdown();
+        evictor.shutdown();
+        connections.shutdown();
     }
 
-    private HttpMethod postRequest(String url, List params) {
+    public Response post(String url, List params) {
+        RequestEntity entity = new FormEntity(params);
+        if (compressRequests) entity = new GzipEntity(entity);
+        int kilobytes = reserve(url, entity);
         PostMethod request = new PostMethod(url);
-        request.setRequestBody(params(params));
-        request.addRequestHeader("Content-Type",
-                                 "application/x-www-form-urlencoded; charset=UTF-8");
-        return request;
+        request.setRequestEntity(entity);
+        if (compressRequests) request.setRequestHeader("Content-Encoding", GZIP);
+        Trace trace = Trace.current();
+        if (trace != null) request.setRequestHeader(CORRELATION_HEADER, trace.id());
+        try {
+            execute(request);
+            return new HttpClientResponse(request);
+        } finally {
+            request.releaseConnection();
+            if (inFlight != null) inFlight.release(kilobytes);
+        }
     }
 
-    private NameValuePair[] params(List params) {
-        List<NameValuePair> pairs = new ArrayList<NameValuePair>();
-        for (Object o : params) {
-            Param param = (Param) o;
-            pairs.add(new NameValuePair(param.name, param.value));
+    // Waits as long as it would for a connection for the body's share of the
+    // limit. A body larger than the whole limit waits for all of it.
+    private int reserve(String url, RequestEntity entity) {
+        if (inFlight == null) return 0;
+        int kilobytes = (int) Math.min((entity.getContentLength() + 1023) / 1024, inFlightKilobytes);
+        try {
+            if (inFlight.tryAcquire(kilobytes, connectTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                return kilobytes;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throw new InFlightLimitException(url);
+    }
+
+    // HttpClient 3 can only wait for responses, so asynchronous posts are handed
+    // to threads of their own. There are never more of them than connections,
+    // as any more would only wait for a connection.
+    public Promise<Response> postAsync(final String url, final List params) {
+        final Promise<Response> response = new Promise<Response>();
+        try {
+            senders.execute(Trace.carry(new Runnable() {
+                    public void run() {
+                        response.start();
+                        try {
+                            response.succeed(post(url, params));
+                        } catch (RuntimeException e) {
+                            response.fail(e);
+                        }
+                    }
+                }));
+        } catch (RejectedExecutionException e) {
+            response.fail(e);
+        }
+        return response;
+    }
+
+    // Returns the body of the page, which is expected to be small.
+    public String get(String url) {
+        HttpMethodBase request = new GetMethod(url);
+        try {
+            execute(request);
+            if (request.getStatusCode() >= 400) {
+                throw new ResponseValidatingWebClient.FailedResponseException(
+                    request.getStatusCode(),
+                    "Request to " + url + " failed with status " + request.getStatusCode());
+            }
+            return readBody(request);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            request.releaseConnection();
         }
-        return pairs.toArray(new NameValuePair[0]);
     }
 
     private void execute(HttpMethod request) {
+        request.setRequestHeader("Accept-Encoding", GZIP);
         try {
             client.executeMethod(request);
+        } catch (ConnectionPoolTimeoutException e) {
+            throw new LocalLimitException("Gave up waiting for a free connection to Mingle", e);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    // Decompresses the body as it is read from the connection, rather than
+    // reading it all before decompressing it.
+    private static String readBody(HttpMethodBase request) throws IOException {
+        InputStream in = request.getResponseBodyAsStream();
+        if (in == null) return "";
+        Header encoding = request.getResponseHeader("Content-Encoding");
+        if (encoding != null && encoding.getValue().toLowerCase().indexOf(GZIP) >= 0) {
+            in = new GZIPInputStream(in);
+        }
+        Reader reader = new InputStreamReader(in, request.getResponseCharSet());
+        StringBuilder body = new StringBuilder();
+        char[] buffer = new char[4096];
+        for (int read; (read = reader.read(buffer)) >= 0; ) {
+            body.append(buffer, 0, read);
+        }
+        return body.toString();
+    }
+
+    // Credentials are sent with the first request rather than in answer to a 401,
+    // which saves a round trip on every card.
     private void setCredentials(String username, String password) {
+        client.getParams().setAuthenticationPreemptive(true);
         client.getState().setCredentials(null, null,
                                          new UsernamePasswordCredentials(username, password));
     }
 
-    private class HttpClientResponse implements Response {
-        private final HttpMethod request;
-        public HttpClientResponse(HttpMethod request) {
-            this.request = request;
+    // Reads what is needed from the response up front so that the connection can
+    // go back to the pool as soon as the request is complete. The body is only
+    // kept for failures, where it explains what went wrong.
+    private static class HttpClientResponse implements Response {
+        private final int statusCode;
+        private final Map<String, String> headers =
+            new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        private final String body;
+
+        public HttpClientResponse(HttpMethodBase request) {
+            statusCode = request.getStatusCode();
+            for (Header header : request.getResponseHeaders()) {
+                headers.put(header.getName(), header.getValue());
+            }
+            try {
+                body = statusCode >= 400 ? readBody(request) : "";
+            } catch(IOException ex) {
+                throw new RuntimeException(ex);
+            }
         }
 
         public int statusCode() {
-            return request.getStatusCode();
+            return statusCode;
         }
 
         public String header(String name) {
-            return request.getResponseHeader(name).getValue();
+            return headers.get(name);
         }
 
         public String body() {
-            try {
-                return request.getResponseBodyAsString();
-            } catch(IOException ex) {
-                throw new RuntimeException(ex);
-            }
+            return body;
         }
     }
 }
@@ -0,0 +1,38 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+// Records the URLs of new cards on the issues they were created from, alongside
+// any already recorded there, the same way the outbox does for cards it sends late.
+public interface Writebacks {
+    void mingleUrl(Issue issue, String url);
+    void shutdown();
+
+    // Writes each URL on the calling thread, as soon as its card is created.
+    public class Immediate implements Writebacks {
+        private final Metrics metrics;
+        public Immediate(Metrics metrics) {
+            this.metrics = metrics;
+        }
+
+        public void mingleUrl(Issue issue, String url) {
+            long started = System.nanoTime();
+            issue.addMingleUrl(url);
+            metrics.since(Metrics.Stage.WRITEBACK, started);
+        }
+
+        public void shutdown() { }
+    }
+}
@@ -19,16 +19,36 @@ import org.junit.runners.Suite;
 
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
+    AsyncDispatcherTests.class,
+    BackfillTests.class,
+    BatchingAPITests.class,
+    BatchingWritebacksTests.class,
+    CircuitBreakingWebClientTests.class,
+    CoalescingWorkflowTests.class,
     ConfigTests.EachMandatoryEntry.class,
     ConfigTests.EachMapping.class,
     ConfigTests.EachOptionalMapping.class,
+    ConfigTests.Dispatch.class,
+    ConfigTests.Snapshot.class,
     EventHandlerTests.class,
     EventTests.class,
+    FormEntityTests.class,
+    GzipEntityTests.class,
     JiraTests.class,
+    JournalOutboxTests.class,
+    Log4JLoggerTests.class,
+    MeteredWebClientTests.class,
+    MetricsTests.class,
+    MingleMetadataTests.class,
     MingleTests.class,
     LoggingWebClientTests.class,
+    PipelineTests.class,
+    PromiseTests.class,
     ResponseValidatingWebClientTests.class,
+    RingBufferTests.class,
     SimpleProjectMapTests.class,
+    TraceTests.class,
+    WebClientTests.class,
     MappingTests.class,
     WebAPITests.class,
     WorkflowTests.class
@@ -0,0 +1,146 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import static com.natpryce.makeiteasy.MakeItEasy.*;
+import static com.thoughtworks.mingleconnector.TestSupport.Makers.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class AsyncDispatcherTests {
+    private final Logger logger = mock(Logger.class);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch handled = new CountDownLatch(1);
+    private final Map<String, Thread> handledOn = new ConcurrentHashMap<String, Thread>();
+    private AsyncDispatcher dispatcher;
+
+    private final Dispatcher blocking = new Dispatcher() {
+            public void dispatch(Event event) {
+                handledOn.put(event.issue().key(), Thread.currentThread());
+                if (!event.issue().key().equals("ONE-1")) return;
+                handled.countDown();
+                await(release);
+            }
+            public void shutdown() { }
+        };
+
+    private AsyncDispatcher dispatcher(AsyncDispatcher.Overflow overflow) {
+        dispatcher = new AsyncDispatcher(blocking, logger, 1, 1, overflow, 10);
+        return dispatcher;
+    }
+
+    @After public void shutdown() {
+        release.countDown();
+        if (dispatcher != null) dispatcher.shutdown();
+    }
+
+    @Test public void handlesEventsOnAnotherThread() {
+        dispatcher(AsyncDispatcher.Overflow.BLOCK).dispatch(event("ONE-1"));
+        await(handled);
+        assertNotSame(Thread.currentThread(), handledOn.get("ONE-1"));
+    }
+
+    @Test public void handsOverASnapshotOfTheEvent() {
+        final Holder<Event> received = new Holder<Event>(null);
+        final CountDownLatch done = new CountDownLatch(1);
+        dispatcher = new AsyncDispatcher(new Dispatcher() {
+                public void dispatch(Event event) { received.value = event; done.countDown(); }
+                public void shutdown() { }
+            }, logger, 1, 1, AsyncDispatcher.Overflow.BLOCK, 10);
+        Event original = event("ONE-1");
+        dispatcher.dispatch(original);
+        await(done);
+        assertNotSame(original, received.value);
+        assertEquals("ONE-1", received.value.issue().key());
+    }
+
+    @Test public void handlesEventsUnderTheTraceTheyWereDispatchedIn() {
+        final Holder<Trace> received = new Holder<Trace>(null);
+        final CountDownLatch done = new CountDownLatch(1);
+        dispatcher = new AsyncDispatcher(new Dispatcher() {
+                public void dispatch(Event event) { received.value = Trace.current(); done.countDown(); }
+                public void shutdown() { }
+            }, logger, 1, 1, AsyncDispatcher.Overflow.BLOCK, 10);
+        Trace trace = new Trace("the-id", null);
+        Trace previous = trace.enter();
+        try {
+            dispatcher.dispatch(event("ONE-1"));
+        } finally {
+            Trace.resume(previous);
+        }
+        await(done);
+        assertSame(trace, received.value);
+    }
+
+    @Test public void dropsEventsWhenTheQueueIsFullAndThePolicyIsToDiscard() {
+        fill(dispatcher(AsyncDispatcher.Overflow.DISCARD));
+        dispatcher.dispatch(event("ONE-3"));
+        verify(logger).droppedEvent("ONE-3");
+    }
+
+    @Test public void dropsEventsWhenTheQueueStaysFullForTheTimeoutAndThePolicyIsToBlock() {
+        fill(dispatcher(AsyncDispatcher.Overflow.BLOCK));
+        dispatcher.dispatch(event("ONE-3"));
+        verify(logger).droppedEvent("ONE-3");
+    }
+
+    @Test public void handlesEventsOnTheCallingThreadWhenTheQueueIsFullAndThePolicyIsCallerRuns() {
+        fill(dispatcher(AsyncDispatcher.Overflow.CALLER_RUNS));
+        dispatcher.dispatch(event("ONE-3"));
+        assertSame(Thread.currentThread(), handledOn.get("ONE-3"));
+        verify(logger, never()).droppedEvent(anyString());
+    }
+
+    @Test public void logsEventsThatFail() {
+        final RuntimeException failure = new RuntimeException();
+        final CountDownLatch done = new CountDownLatch(1);
+        dispatcher = new AsyncDispatcher(new Dispatcher() {
+                public void dispatch(Event event) { done.countDown(); throw failure; }
+                public void shutdown() { }
+            }, logger, 1, 1, AsyncDispatcher.Overflow.BLOCK, 10);
+        dispatcher.dispatch(event("ONE-1"));
+        await(done);
+        verify(logger, timeout(1000)).failedEvent("ONE-1", failure);
+    }
+
+    @Test public void parsesOverflowPolicyNamesWithoutRegardToCase() {
+        assertEquals(AsyncDispatcher.Overflow.CALLER_RUNS, AsyncDispatcher.Overflow.named(" Caller-Runs"));
+    }
+
+    private void fill(AsyncDispatcher dispatcher) {
+        dispatcher.dispatch(event("ONE-1"));
+        await(handled);
+        dispatcher.dispatch(event("ONE-2"));
+    }
+
+    private Event event(String issueKey) {
+        return new Event(make(an(Issue, with(key, issueKey))), mock(Event.Changes.class),
+                         mock(Event.Workflow.class));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import static org.mockito.Mockito.*;
+
+public class BackfillTests {
+    private final Logger logger = mock(Logger.class);
+    private final List<Long> asked = Collections.synchronizedList(new ArrayList<Long>());
+    private final List<String> handedOver = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<Long> pending = new HashSet<Long>();
+    private final Set<String> failing = Collections.synchronizedSet(new HashSet<String>());
+    private long last = 10;
+    private File directory;
+
+    private final Backfill.Source source = new Backfill.Source() {
+            public long lastNumber(String project) { return last; }
+            public Maybe<Issue> pending(String project, long number, String status) {
+                asked.add(number);
+                if (!pending.contains(number)) return Maybe.nothing();
+                Issue issue = mock(Issue.class);
+                stub(issue.key()).toReturn(project + "-" + number);
+                return Maybe.definitely(issue);
+            }
+        };
+
+    private final Backfill.Handler handler = new Backfill.Handler() {
+            public void handover(Issue issue) {
+                if (failing.remove(issue.key())) throw new RuntimeException("Mingle is down");
+                handedOver.add(issue.key());
+            }
+        };
+
+    @Before public void createDirectory() throws IOException {
+        directory = File.createTempFile("backfill", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After public void deleteDirectory() {
+        for (File file : directory.listFiles()) file.delete();
+        directory.delete();
+    }
+
+    private Backfill backfill(Backfill.Handler handler) {
+        return new Backfill(source, handler, directory, 2, 3, logger);
+    }
+
+    @Test public void handsOverOnlyThePendingIssues() {
+        pending.add(2L); pending.add(7L);
+        backfill(handler).run("SUP", "Open");
+        assertEquals(10, asked.size());
+        Collections.sort(handedOver);
+        assertEquals(Arrays.asList("SUP-2", "SUP-7"), handedOver);
+    }
+
+    @Test public void carriesOnFromThePageThatFailed() {
+        pending.add(2L); pending.add(5L); pending.add(8L);
+        failing.add("SUP-5");
+        String summary = backfill(handler).run("SUP", "Open");
+        assertTrue(summary, summary.contains("Mingle is down"));
+        assertFalse(asked.contains(7L));
+        verify(logger).failedBackfill(eq("SUP"), eq(4L), eq(6L), any(RuntimeException.class));
+
+        asked.clear();
+        backfill(handler).run("SUP", "Open");
+        assertEquals(4L, (long) Collections.min(asked));
+        assertTrue(handedOver.contains("SUP-5"));
+        assertTrue(handedOver.contains("SUP-8"));
+    }
+
+    @Test public void startsAgainFromTheBeginningOnceFinished() {
+        backfill(handler).run("SUP", "Open");
+        assertEquals(0, directory.listFiles().length);
+        asked.clear();
+        backfill(handler).run("SUP", "Open");
+        assertEquals(1L, (long) Collections.min(asked));
+    }
+
+    @Test public void createsCardsOnNoMoreThanTheGivenNumberOfThreads() {
+        last = 30;
+        for (long number = 1; number <= last; number++) pending.add(number);
+        final AtomicInteger running = new AtomicInteger(), most = new AtomicInteger();
+        backfill(new Backfill.Handler() {
+                public void handover(Issue issue) {
+                    int now = running.incrementAndGet();
+                    synchronized (most) { most.set(Math.max(most.get(), now)); }
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {}
+                    running.decrementAndGet();
+                }
+            }).run("SUP", "Open");
+        assertTrue(most.get() <= 2);
+    }
+
+    @Test public void reportsProgressAfterEachPage() {
+        backfill(handler).run("SUP", "Open");
+        verify(logger).backfilled("SUP", 3, 10, 0);
+        verify(logger).backfilled("SUP", 10, 10, 0);
+    }
+}
@@ -0,0 +1,173 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class BatchingAPITests {
+    private final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<Thread> senders = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+    private final Mingle.API api = new Mingle.API.Blocking() {
+            public String createCard(String server, String project, String type, String name,
+                                     String description, Map properties) {
+                if (name.equals("broken")) throw new IllegalStateException(name);
+                if (name.equals("sluggish")) pause(200);
+                sent.add(project + "/" + name);
+                senders.add(Thread.currentThread());
+                return server + "/" + project + "/" + name;
+            }
+        };
+    private BatchingAPI batching = new BatchingAPI(api, 50, 2, 4, 5000);
+
+    @After public void shutdown() {
+        batching.shutdown();
+    }
+
+    @Test public void returnsTheUrlOfEachCard() throws InterruptedException {
+        List<Thread> callers = new ArrayList<Thread>();
+        final Map<String, String> urls = new ConcurrentHashMap<String, String>();
+        for (int i = 0; i < 5; i++) {
+            final String name = "card-" + i;
+            callers.add(start(new Runnable() {
+                    public void run() {
+                        urls.put(name, batching.createCard("s", "p", "Story", name, "", new HashMap()));
+                    }
+                }));
+        }
+        join(callers);
+        assertEquals(5, urls.size());
+        for (Map.Entry<String, String> url : urls.entrySet()) {
+            assertEquals("s/p/" + url.getKey(), url.getValue());
+        }
+    }
+
+    @Test public void sendsTheCardsForAProjectFromOneThreadAtATime() throws InterruptedException {
+        List<Thread> callers = new ArrayList<Thread>();
+        for (int i = 0; i < 5; i++) {
+            final String name = "card-" + i;
+            callers.add(start(new Runnable() {
+                    public void run() {
+                        batching.createCard("s", "p", "Story", name, "", new HashMap());
+                    }
+                }));
+        }
+        join(callers);
+        assertEquals(5, sent.size());
+        for (Thread caller : callers) assertFalse(senders.contains(caller));
+    }
+
+    @Test public void reportsAFailureOnlyToTheCallerWhoseCardFailed() throws InterruptedException {
+        final Holder<RuntimeException> failure = new Holder<RuntimeException>(null);
+        Thread broken = start(new Runnable() {
+                public void run() {
+                    try {
+                        batching.createCard("s", "p", "Story", "broken", "", new HashMap());
+                    } catch (RuntimeException e) {
+                        failure.value = e;
+                    }
+                }
+            });
+        assertEquals("s/p/fine", batching.createCard("s", "p", "Story", "fine", "", new HashMap()));
+        broken.join();
+        assertTrue(failure.value instanceof IllegalStateException);
+    }
+
+    @Test public void promisesTheUrlOfACardSentAsynchronously() {
+        Promise<String> url = batching.createCardAsync("s", "p", "Story", "later", "", new HashMap());
+        assertEquals("s/p/later", url.join());
+    }
+
+    @Test public void keepsProjectsApart() {
+        assertEquals("s/one/card", batching.createCard("s", "one", "Story", "card", "", new HashMap()));
+        assertEquals("s/two/card", batching.createCard("s", "two", "Story", "card", "", new HashMap()));
+    }
+
+    @Test public void failsTheCardsStillWaitingWhenShutDown() {
+        batching.shutdown();
+        batching = new BatchingAPI(api, 60 * 1000, 2, 4, 5000);
+        Promise<String> url = batching.createCardAsync("s", "p", "Story", "waiting", "", new HashMap());
+        batching.shutdown();
+        try {
+            url.join(1, TimeUnit.SECONDS);
+            fail();
+        } catch (RejectedExecutionException e) { }
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test public void givesUpWaitingForACardAndDoesNotSendItLater() throws InterruptedException {
+        batching.shutdown();
+        batching = new BatchingAPI(api, 200, 2, 4, 10);
+        try {
+            batching.createCard("s", "p", "Story", "slow", "", new HashMap());
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("Gave up waiting"));
+        }
+        Thread.sleep(400);
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test public void waitsForACardThatIsAlreadyBeingSentWhenTheWaitRunsOut() {
+        batching.shutdown();
+        batching = new BatchingAPI(api, 0, 2, 4, 50);
+        assertEquals("s/p/sluggish", batching.createCard("s", "p", "Story", "sluggish", "", new HashMap()));
+        assertEquals(1, sent.size());
+    }
+
+    @Test public void waitsLongerBehindADeeperQueue() throws InterruptedException {
+        batching.shutdown();
+        batching = new BatchingAPI(api, 0, 1, 4, 250);
+        List<Thread> callers = new ArrayList<Thread>();
+        final List<String> urls = Collections.synchronizedList(new ArrayList<String>());
+        for (int i = 0; i < 3; i++) {
+            callers.add(start(new Runnable() {
+                    public void run() {
+                        urls.add(batching.createCard("s", "p", "Story", "sluggish", "", new HashMap()));
+                    }
+                }));
+        }
+        join(callers);
+        assertEquals(3, urls.size());
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Thread start(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.start();
+        return thread;
+    }
+
+    private void join(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) thread.join(5000);
+    }
+}
@@ -0,0 +1,114 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.mockito.Mockito.*;
+
+public class BatchingWritebacksTests {
+    private final Logger logger = mock(Logger.class);
+    private final Metrics metrics = new Metrics();
+    private final Issue issue = issue("KEY-1");
+    private BatchingWritebacks writebacks = new BatchingWritebacks(metrics, logger, 20, 10, 2, 1000);
+
+    @After public void shutdown() {
+        writebacks.shutdown();
+    }
+
+    private static Issue issue(String key) {
+        Issue issue = mock(Issue.class);
+        when(issue.key()).thenReturn(key);
+        return issue;
+    }
+
+    @Test public void writesTheUrlFromAThreadOfItsOwn() {
+        final Set<Thread> writers = Collections.synchronizedSet(new HashSet<Thread>());
+        doAnswer(new Answer<Object>() {
+                public Object answer(InvocationOnMock invocation) {
+                    writers.add(Thread.currentThread());
+                    return null;
+                }
+            }).when(issue).addMingleUrl("the-url");
+        writebacks.mingleUrl(issue, "the-url");
+        verify(issue, timeout(2000)).addMingleUrl("the-url");
+        writebacks.shutdown();
+        assertFalse(writers.contains(Thread.currentThread()));
+        assertEquals(1, metrics.latency(Metrics.Stage.WRITEBACK).count());
+    }
+
+    @Test public void writesTheUrlsForOneIssueTogether() {
+        writebacks = new BatchingWritebacks(metrics, logger, 200, 10, 2, 1000);
+        writebacks.mingleUrl(issue, "one");
+        writebacks.mingleUrl(issue, "two");
+        writebacks.mingleUrl(issue, "one");
+        verify(issue, timeout(2000)).addMingleUrl("one two");
+        verify(issue, never()).addMingleUrl("one");
+    }
+
+    @Test public void retriesAFailedWrite() {
+        doThrow(new IllegalStateException("indexer is busy")).doNothing().when(issue).addMingleUrl("the-url");
+        writebacks.mingleUrl(issue, "the-url");
+        verify(issue, timeout(2000).times(2)).addMingleUrl("the-url");
+        verify(logger).retryingWriteback("KEY-1", 1, 20);
+        verify(logger, never()).failedWriteback(anyString(), any(RuntimeException.class));
+    }
+
+    @Test public void givesUpAfterTheRetries() {
+        IllegalStateException failure = new IllegalStateException("database is down");
+        doThrow(failure).when(issue).addMingleUrl("the-url");
+        writebacks.mingleUrl(issue, "the-url");
+        verify(logger, timeout(2000)).failedWriteback("KEY-1", failure);
+        verify(issue, times(3)).addMingleUrl("the-url");
+    }
+
+    @Test public void writesWhatIsWaitingWhenShutDown() {
+        writebacks = new BatchingWritebacks(metrics, logger, 60 * 1000, 10, 2, 1000);
+        Issue other = issue("KEY-2");
+        writebacks.mingleUrl(issue, "one");
+        writebacks.mingleUrl(other, "two");
+        writebacks.shutdown();
+        verify(issue).addMingleUrl("one");
+        verify(other).addMingleUrl("two");
+    }
+
+    @Test public void writesTheNextBatchStraightAwayAfterAFullOne() {
+        writebacks = new BatchingWritebacks(metrics, logger, 500, 2, 2, 1000);
+        Issue last = null;
+        for (int i = 1; i <= 5; i++) writebacks.mingleUrl(last = issue("KEY-" + i), "url");
+        verify(last, timeout(1000)).addMingleUrl("url");
+    }
+
+    @Test public void dropsUrlsForMoreIssuesThanMayWait() {
+        writebacks = new BatchingWritebacks(metrics, logger, 60 * 1000, 10, 2, 2);
+        Issue other = issue("KEY-2"), dropped = issue("KEY-3");
+        writebacks.mingleUrl(issue, "one");
+        writebacks.mingleUrl(other, "two");
+        writebacks.mingleUrl(dropped, "three");
+        writebacks.mingleUrl(issue, "four");
+        writebacks.shutdown();
+        verify(issue).addMingleUrl("one four");
+        verify(other).addMingleUrl("two");
+        verify(dropped, never()).addMingleUrl(anyString());
+        verify(logger).droppedWriteback("KEY-3", "three");
+        assertEquals(1, metrics.getDroppedWritebacks());
+    }
+}
@@ -0,0 +1,264 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import static org.mockito.Mockito.*;
+import static com.thoughtworks.mingleconnector.TestSupport.*;
+
+public class CircuitBreakingWebClientTests {
+    private final LinkedList<Object> outcomes = new LinkedList<Object>();
+    private final List<String> urls = new ArrayList<String>();
+    private final List<Long> sleeps = new ArrayList<Long>();
+    private final Logger logger = mock(Logger.class);
+    private long now = 0;
+
+    private final Web wrapped = new Web.Blocking() {
+            public Response post(String url, List params) {
+                urls.add(url);
+                Object outcome = outcomes.isEmpty() ? 200 : outcomes.removeFirst();
+                if (outcome instanceof RuntimeException) throw (RuntimeException) outcome;
+                if (outcome instanceof Long) {
+                    now += (Long) outcome;
+                    outcome = 200;
+                }
+                return new CannedStatusWeb((Integer) outcome).post(url, params);
+            }
+            public String get(String url) {
+                int status = post(url, null).statusCode();
+                if (status >= 400) throw new ResponseValidatingWebClient.FailedResponseException(status, "Failed");
+                return "";
+            }
+        };
+
+    private final CircuitBreakingWebClient client =
+        new CircuitBreakingWebClient(wrapped, logger, 4, 4, 0.5, 1000, 500, 2, 100) {
+            protected long now() { return now; }
+            protected void sleep(long millis) { sleeps.add(millis); }
+        };
+
+    private void outcomes(Object... values) {
+        for (Object value : values) outcomes.add(value);
+    }
+
+    private static RuntimeException refused() {
+        return new RuntimeException("Could not post", new ConnectException("Connection refused"));
+    }
+
+    private void failTimes(int times) {
+        for (int i = 0; i < times; i++) {
+            outcomes(500);
+            client.post("http://mingle/api/v2/projects/p/cards.xml", null);
+        }
+    }
+
+    @Test public void passesSuccessfulResponsesThrough() {
+        outcomes(201);
+        assertEquals(201, client.post("http://mingle/cards.xml", null).statusCode());
+        assertEquals(1, urls.size());
+    }
+
+    @Test public void returnsServerErrorsWithoutRetrying() {
+        outcomes(500);
+        assertEquals(500, client.post("http://mingle/cards.xml", null).statusCode());
+        assertEquals(1, urls.size());
+    }
+
+    @Test public void retriesUnavailableResponsesWithGrowingDelays() {
+        outcomes(503, 503, 201);
+        assertEquals(201, client.post("http://mingle/cards.xml", null).statusCode());
+        assertEquals(3, urls.size());
+        assertEquals(2, sleeps.size());
+        assertTrue(sleeps.get(0) >= 50 && sleeps.get(0) <= 100);
+        assertTrue(sleeps.get(1) >= 100 && sleeps.get(1) <= 200);
+        verify(logger).retryingPost("http://mingle/cards.xml", 1, sleeps.get(0));
+    }
+
+    @Test public void givesUpAfterTheConfiguredNumberOfRetries() {
+        outcomes(503, 503, 503, 201);
+        assertEquals(503, client.post("http://mingle/cards.xml", null).statusCode());
+        assertEquals(3, urls.size());
+    }
+
+    @Test public void retriesRefusedConnections() {
+        outcomes(refused(), 201);
+        assertEquals(201, client.post("http://mingle/cards.xml", null).statusCode());
+        assertEquals(2, urls.size());
+    }
+
+    @Test public void doesNotRetryFailuresThatMayHaveCreatedACard() {
+        RuntimeException failure = new RuntimeException("Read timed out");
+        outcomes(failure, 201);
+        try {
+            client.post("http://mingle/cards.xml", null);
+            fail();
+        } catch (RuntimeException e) {
+            assertSame(failure, e);
+        }
+        assertEquals(1, urls.size());
+    }
+
+    @Test public void opensOnceEnoughRecentRequestsHaveFailed() {
+        failTimes(2);
+        outcomes(201, 201);
+        client.post("http://mingle/cards.xml", null);
+        client.post("http://mingle/cards.xml", null);
+        verify(logger).circuitOpened("mingle");
+        try {
+            client.post("http://mingle/cards.xml", null);
+            fail();
+        } catch (CircuitBreakingWebClient.CircuitOpenException e) {
+            assertTrue(e.getMessage().contains("mingle"));
+        }
+        assertEquals(4, urls.size());
+    }
+
+    @Test public void staysClosedWhileMostRequestsSucceed() {
+        failTimes(1);
+        outcomes(201, 201, 201, 201);
+        for (int i = 0; i < 4; i++) client.post("http://mingle/cards.xml", null);
+        verify(logger, never()).circuitOpened(anyString());
+    }
+
+    @Test public void countsSlowRequestsAsFailures() {
+        outcomes(600L, 600L, 600L, 600L);
+        for (int i = 0; i < 4; i++) client.post("http://mingle/cards.xml", null);
+        verify(logger).circuitOpened("mingle");
+    }
+
+    @Test public void countsNoRequestsAsSlowWithoutASlowCallThreshold() {
+        CircuitBreakingWebClient unbounded =
+            new CircuitBreakingWebClient(wrapped, logger, 4, 4, 0.5, 1000, 0, 2, 100) {
+                protected long now() { return now; }
+                protected void sleep(long millis) { sleeps.add(millis); }
+            };
+        outcomes(600L, 600L, 600L, 600L);
+        for (int i = 0; i < 4; i++) unbounded.post("http://mingle/cards.xml", null);
+        verify(logger, never()).circuitOpened("mingle");
+    }
+
+    @Test public void timesAsynchronousPostsFromWhenTheyAreSent() {
+        final LinkedList<Promise<Web.Response>> queued = new LinkedList<Promise<Web.Response>>();
+        Web queueing = new Web() {
+                public Response post(String url, List params) { throw new UnsupportedOperationException(); }
+                public String get(String url) { throw new UnsupportedOperationException(); }
+                public Promise<Response> postAsync(String url, List params) {
+                    Promise<Response> response = new Promise<Response>();
+                    queued.add(response);
+                    return response;
+                }
+            };
+        CircuitBreakingWebClient async =
+            new CircuitBreakingWebClient(queueing, logger, 4, 4, 0.5, 1000, 500, 2, 100) {
+                protected long now() { return now; }
+            };
+        for (int i = 0; i < 4; i++) async.postAsync("http://mingle/cards.xml", null);
+        now += 600;
+        for (Promise<Web.Response> response : queued) {
+            response.start();
+            now += 10;
+            response.succeed(new CannedStatusWeb(201).post("http://mingle/cards.xml", null));
+        }
+        verify(logger, never()).circuitOpened("mingle");
+    }
+
+    @Test public void doesNotCountClientErrorsAsFailures() {
+        outcomes(422, 422, 422, 422);
+        for (int i = 0; i < 4; i++) client.post("http://mingle/cards.xml", null);
+        verify(logger, never()).circuitOpened(anyString());
+    }
+
+    @Test public void keepsACircuitPerHost() {
+        failTimes(4);
+        outcomes(201);
+        assertEquals(201, client.post("https://other:8080/cards.xml", null).statusCode());
+    }
+
+    @Test public void letsOneRequestThroughAfterTheOpenPeriodAndClosesIfItSucceeds() {
+        failTimes(4);
+        now += 1000;
+        outcomes(201, 201);
+        assertEquals(201, client.post("http://mingle/cards.xml", null).statusCode());
+        verify(logger).circuitClosed("mingle");
+        assertEquals(201, client.post("http://mingle/cards.xml", null).statusCode());
+    }
+
+    @Test public void reopensIfTheTrialRequestFails() {
+        failTimes(4);
+        now += 1000;
+        failTimes(1);
+        verify(logger, times(2)).circuitOpened("mingle");
+        try {
+            client.post("http://mingle/cards.xml", null);
+            fail();
+        } catch (CircuitBreakingWebClient.CircuitOpenException expected) {}
+    }
+
+    @Test public void neitherRecordsNorRetriesPostsHeldBackByTheInFlightLimit() {
+        for (int i = 0; i < 4; i++) {
+            outcomes(new WebClient.InFlightLimitException("http://mingle/cards.xml"));
+            try {
+                client.post("http://mingle/cards.xml", null);
+                fail();
+            } catch (WebClient.InFlightLimitException expected) {}
+        }
+        assertEquals(4, urls.size());
+        outcomes(201);
+        assertEquals(201, client.post("http://mingle/cards.xml", null).statusCode());
+    }
+
+    @Test public void neitherRecordsNorRetriesPostsThatFoundNoFreeConnection() {
+        for (int i = 0; i < 4; i++) {
+            outcomes(new WebClient.LocalLimitException("No free connection",
+                                                       new ConnectionPoolTimeoutException("Timeout")));
+            try {
+                client.post("http://mingle/cards.xml", null);
+                fail();
+            } catch (WebClient.LocalLimitException expected) {}
+        }
+        assertEquals(4, urls.size());
+        outcomes(201);
+        assertEquals(201, client.post("http://mingle/cards.xml", null).statusCode());
+    }
+
+    @Test public void countsFailedMetadataFetchesTowardsOpening() {
+        for (int i = 0; i < 4; i++) {
+            outcomes(500);
+            try {
+                client.get("http://mingle/api/v2/projects/p/card_types.xml");
+                fail();
+            } catch (ResponseValidatingWebClient.FailedResponseException expected) {}
+        }
+        try {
+            client.get("http://mingle/api/v2/projects/p/card_types.xml");
+            fail();
+        } catch (CircuitBreakingWebClient.CircuitOpenException expected) {}
+        assertEquals(4, urls.size());
+    }
+
+    @Test public void findsTheHostOfAUrl() {
+        assertEquals("mingle:8080", CircuitBreakingWebClient.host("http://mingle:8080/api/v2/projects"));
+        assertEquals("mingle", CircuitBreakingWebClient.host("mingle"));
+        assertEquals("", CircuitBreakingWebClient.host(null));
+    }
+}
@@ -0,0 +1,89 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import static com.natpryce.makeiteasy.MakeItEasy.*;
+import static com.thoughtworks.mingleconnector.TestSupport.Makers.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+import static org.mockito.Mockito.*;
+
+public class CoalescingWorkflowTests {
+    private final Logger logger = mock(Logger.class);
+    private final Event.Changes changes = mock(Event.Changes.class);
+    private final Metrics metrics = new Metrics();
+    private long now = 1000;
+    private final CoalescingWorkflow workflow =
+        new CoalescingWorkflow(new Workflow(Mapping.parse("PRJ=>In QA")), 100, 2, logger, metrics) {
+            protected long now() { return now; }
+        };
+
+    public CoalescingWorkflowTests() {
+        stub(changes.status()).toReturn("In QA");
+    }
+
+    private boolean handover(String issueKey) {
+        return workflow.isPassToDevelopment(changes, make(an(Issue, with(project, "PRJ"),
+                                                             with(key, issueKey))));
+    }
+
+    @Test public void letsTheFirstHandoverThrough() {
+        assertTrue(handover("PRJ-1"));
+    }
+
+    @Test public void ignoresARepeatedHandoverWithinTheWindow() {
+        handover("PRJ-1");
+        now += 99;
+        assertFalse(handover("PRJ-1"));
+        assertEquals(1, metrics.getCoalescedEvents());
+        verify(logger).coalescedEvent("PRJ-1");
+    }
+
+    @Test public void letsARepeatedHandoverThroughOnceTheWindowHasPassed() {
+        handover("PRJ-1");
+        now += 100;
+        assertTrue(handover("PRJ-1"));
+        assertEquals(0, metrics.getCoalescedEvents());
+    }
+
+    @Test public void keepsIssuesApart() {
+        handover("PRJ-1");
+        assertTrue(handover("PRJ-2"));
+    }
+
+    @Test public void treatsAHandoverToAnotherStatusAsDifferent() {
+        CoalescingWorkflow workflow = new CoalescingWorkflow(new Event.Workflow() {
+                public boolean isPassToDevelopment(Event.Changes changes, Issue issue) { return true; }
+            }, 100, 2, logger, metrics);
+        Issue issue = make(an(Issue, with(key, "PRJ-1")));
+        workflow.isPassToDevelopment(changes, issue);
+        stub(changes.status()).toReturn("Done");
+        assertTrue(workflow.isPassToDevelopment(changes, issue));
+    }
+
+    @Test public void doesNotCountEventsThatAreNotHandovers() {
+        stub(changes.status()).toReturn("Open");
+        handover("PRJ-1");
+        assertFalse(handover("PRJ-1"));
+        assertEquals(0, metrics.getCoalescedEvents());
+    }
+
+    @Test public void forgetsTheOldestIssuesWhenFull() {
+        handover("PRJ-1");
+        handover("PRJ-2");
+        handover("PRJ-3");
+        assertTrue(handover("PRJ-1"));
+    }
+}
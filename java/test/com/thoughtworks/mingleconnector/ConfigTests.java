@@ -34,6 +34,24 @@ public class ConfigTests {
     }};
     protected Config config() { return new Config(values); }
 
+    public static class Snapshot extends ConfigTests {
+        @Test public void isNotAffectedByLaterChangesToTheParameters() {
+            values.put("Project mappings", "ABC=>abc");
+            Config config = config();
+            values.put("Project mappings", "ABC=>other");
+            assertEquals("abc", config.projects().get("ABC").force("none"));
+        }
+
+        @Test public void sharesEverythingButTheRules() {
+            values.put("Project mappings", "ABC=>abc");
+            values.put("Dispatch threads (optional)", "2");
+            Map<String, String> shared = config().shared();
+            assertEquals("2", shared.get("Dispatch threads (optional)"));
+            assertEquals("", shared.get("Mingle server"));
+            assertFalse(shared.containsKey("Project mappings"));
+        }
+    }
+
     @RunWith(value = Parameterized.class)
     public static class EachMandatoryEntry extends ConfigTests {
         @Parameters public static Collection<Object[]> data() {
@@ -89,6 +107,11 @@ public class ConfigTests {
             assertEquals("5678", getMapping.from(config()).get("efgh").force());
         }
 
+        @Test(expected=IllegalArgumentException.class) public void rejectsMalformedDefinitions() {
+            values.put(property.toString(), "abcd=>1234, efgh");
+            getMapping.from(config());
+        }
+
         final Config.Property property;
         final GetMapping getMapping;
 
@@ -150,6 +173,38 @@ public class ConfigTests {
         }
     }
 
+    public static class Dispatch extends ConfigTests {
+        @Test public void isSynchronousByDefault() {
+            assertFalse(config().asynchronous());
+        }
+
+        @Test public void isAsynchronousWhenThereAreDispatchThreads() {
+            values.put("Dispatch threads (optional)", "4");
+            assertTrue(config().asynchronous());
+            assertEquals(4, config().dispatchThreads());
+        }
+
+        @Test public void treatsBlankValuesAsUnset() {
+            values.put("Dispatch queue size (optional)", " ");
+            assertEquals(1000, config().dispatchQueueSize());
+        }
+
+        @Test public void readsTheOverflowPolicy() {
+            values.put("Dispatch overflow policy (optional)", "discard");
+            assertEquals(AsyncDispatcher.Overflow.DISCARD, config().dispatchOverflow());
+        }
+
+        @Test(expected=IllegalArgumentException.class) public void rejectsUnknownOverflowPolicies() {
+            values.put("Dispatch overflow policy (optional)", "explode");
+            config().dispatchOverflow();
+        }
+
+        @Test(expected=IllegalArgumentException.class) public void rejectsNumbersThatArentWhole() {
+            values.put("Dispatch threads (optional)", "many");
+            config().dispatchThreads();
+        }
+    }
+
     private interface GetMapping {
         Mapping from(Config config);
     }
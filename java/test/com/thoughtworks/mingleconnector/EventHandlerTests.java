@@ -14,7 +14,9 @@
 // 
 package com.thoughtworks.mingleconnector;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static com.natpryce.makeiteasy.MakeItEasy.*;
@@ -22,6 +24,7 @@ import static com.thoughtworks.mingleconnector.TestSupport.*;
 import static com.thoughtworks.mingleconnector.TestSupport.Makers.*;
 import static org.junit.Assert.*;
 import org.junit.*;
+import org.mockito.ArgumentCaptor;
 import static org.mockito.Mockito.*;
 
 public class EventHandlerTests {
@@ -40,20 +43,41 @@ public class EventHandlerTests {
             put("Reporter", "Support Reporter");
         }};
 
+    private final Metrics metrics = new Metrics();
+    private CardFactory.Validator validator = CardFactory.Validator.NONE;
+    private String[] mingleProjects = { "a-project" };
+    private int descriptionBytes = 0;
+    private Writebacks writebacks = new Writebacks.Immediate(metrics);
+
     private EventHandler handler() {
+        return handler(new Outbox.None());
+    }
+
+    private EventHandler handler(Outbox outbox) {
         return new EventHandler(logger,
                                 new CardFactory(Mapping.fromMap(typeMap),
                                                 Mapping.fromMap(propertyMap),
                                                 projectMap(),
-                                                constantMap, priorityMap, logger));
+                                                constantMap, priorityMap, logger, metrics,
+                                                validator, descriptionBytes),
+                                outbox, metrics, writebacks);
     }
 
     private ProjectMap projectMap() {
-        Mingle.Project mingleProject = new Mingle.Project(api, null, "a-project");
-        stub(projectMap.get(anyString())).toReturn(mingleProject);
+        List<Mingle.Project> projects = new ArrayList<Mingle.Project>();
+        for (String identifier : mingleProjects) {
+            projects.add(new Mingle.Project(api, null, identifier));
+        }
+        stub(projectMap.get(anyString())).toReturn(projects);
         return projectMap;
     }
 
+    private void createsCardsAsynchronously(String project, Promise<String> url) {
+        stub(api.createCardAsync(anyString(), eq(project), anyString(), anyString(), anyString(),
+                                 anyMap()))
+            .toReturn(url);
+    }
+
     @Test public void createsACardIfTheIssueIsBeingPassedToDev() {
         handler().handle(make(an(Event, with(isPassToDevelopment, true))));
         verify(api).createCard(anyString(), anyString(), anyString(), anyString(), anyString(),
@@ -187,6 +211,62 @@ public class EventHandlerTests {
         verify(logger).unmappableValue("Priority", "Who Knows");
     }
 
+    @Test public void doesNotSendCardsThatFailValidation() {
+        validator = new CardFactory.Validator() {
+                public Mingle.Project.Card validate(Mingle.Project.Card card) {
+                    throw new MingleMetadata.InvalidCardException("no such type");
+                }
+            };
+        try {
+            handler().handle(make(an(Event, with(isPassToDevelopment, true))));
+            fail();
+        } catch (MingleMetadata.InvalidCardException expected) {}
+        verifyZeroInteractions(api);
+    }
+
+    @Test public void countsUnmappableValues() {
+        handler().handle(make(an(Event, with(issue, an(Issue, with(priority, "Who Knows"))))));
+        assertEquals(1, metrics.getUnmappableValues());
+    }
+
+    @Test public void countsEventsAndHandovers() {
+        handler().handle(make(an(Event, with(isPassToDevelopment, false))));
+        handler().handle(make(an(Event, with(isPassToDevelopment, true))));
+        assertEquals(2, metrics.getEventsSeen());
+        assertEquals(1, metrics.getHandovers());
+        assertEquals(2, metrics.latency(Metrics.Stage.HANDOVER_DETECTION).count());
+    }
+
+    @Test public void timesCardAssemblyAndWriteback() {
+        handler().handle(make(an(Event, with(isPassToDevelopment, true))));
+        assertEquals(1, metrics.latency(Metrics.Stage.CARD_ASSEMBLY).count());
+        assertEquals(1, metrics.latency(Metrics.Stage.WRITEBACK).count());
+    }
+
+    @Test public void recordsTheCorrelationIdOnTheCardWhenItIsMapped() {
+        propertyMap.put("Correlation ID", "JIRA correlation");
+        Trace previous = new Trace("the-id", null).enter();
+        try {
+            handler().handle(make(an(Event)));
+        } finally {
+            Trace.resume(previous);
+        }
+        verify(api).createCard(anyString(), anyString(), anyString(), anyString(), anyString(),
+                               argThat(hasEntry("JIRA correlation", "the-id")));
+    }
+
+    @Test public void leavesTheWritebackToItsOwnStage() {
+        writebacks = mock(Writebacks.class);
+        stub(api.createCard(anyString(), anyString(), anyString(), anyString(), anyString(),
+                            anyMap()))
+            .toReturn("the-url");
+        Event event = make(an(Event));
+        handler().handle(event);
+        verify(writebacks).mingleUrl(event.issue(), "the-url");
+        assertNull(((InMemoryIssue) event.issue()).mingleUrl);
+        assertEquals(0, metrics.latency(Metrics.Stage.WRITEBACK).count());
+    }
+
     @Test public void setsTheSupportOwnerOnTheCardToTheIssuesAssignee() {
         Event event = make(an(Event, with(issue, an(Issue, with(assignee, "Dan Debunk")))));
         handler().handle(event);
@@ -210,6 +290,26 @@ public class EventHandlerTests {
                                argThat(hasEntry("Support Reporter", "Robert")));
     }
 
+    @Test public void leavesThePropertyMappingAsItWasConfigured() {
+        Mapping properties = Mapping.fromMap(propertyMap);
+        new CardFactory(Mapping.empty(), properties, projectMap(), constantMap, priorityMap, logger);
+        assertNull(properties.get("Key").force((String) null));
+    }
+
+    @Test public void formatsDatesConsistentlyAcrossThreads() throws InterruptedException {
+        final EventHandler handler = handler();
+        Thread other = new Thread() {
+                public void run() {
+                    handler.handle(make(an(Event, with(issue, an(Issue, with(created, "2011-12-24T12:22:14"))))));
+                }
+            };
+        other.start();
+        other.join();
+        handler.handle(make(an(Event, with(issue, an(Issue, with(created, "2011-12-24T12:22:14"))))));
+        verify(api, times(2)).createCard(anyString(), anyString(), anyString(), anyString(), anyString(),
+                                         argThat(hasEntry("Issue Created", "24 Dec 2011")));
+    }
+
     @Test public void logsThatItHandledAnEvent() {
         Event event = make(an(Event));
         handler().handle(event);
@@ -222,6 +322,35 @@ public class EventHandlerTests {
         verify(logger).handledEvent(event);
     }
 
+    @Test public void recordsTheCardInTheOutboxAndConfirmsItOnceCreated() {
+        Outbox outbox = mock(Outbox.class);
+        Outbox.Entry entry = new Outbox.Entry(1, "the-key", "s", "p", "t", "n", "d",
+                                              new HashMap<String, String>());
+        stub(outbox.record(eq("the-key"), any(Mingle.Project.Card.class))).toReturn(entry);
+        handler(outbox).handle(make(an(Event, with(issue, an(Issue, with(key, "the-key"))))));
+        verify(outbox).confirm(entry);
+    }
+
+    @Test public void leavesCardsThatCouldNotBeCreatedToTheOutbox() {
+        Outbox outbox = mock(Outbox.class);
+        RuntimeException failure = new RuntimeException();
+        stub(api.createCard(anyString(), anyString(), anyString(), anyString(), anyString(),
+                            anyMap()))
+            .toThrow(failure);
+        Event event = make(an(Event));
+        handler(outbox).handle(event);
+        verify(outbox).retryLater(any(Outbox.Entry.class), eq(failure));
+        verify(outbox, never()).confirm(any(Outbox.Entry.class));
+        assertNull(((InMemoryIssue) event.issue()).mingleUrl);
+    }
+
+    @Test(expected=RuntimeException.class) public void reportsFailuresWhenThereIsNoOutbox() {
+        stub(api.createCard(anyString(), anyString(), anyString(), anyString(), anyString(),
+                            anyMap()))
+            .toThrow(new RuntimeException());
+        handler().handle(make(an(Event)));
+    }
+
     @Test public void logsThatItCreatedACard() {
         stub(api.createCard(anyString(), anyString(), anyString(), anyString(), anyString(),
                             anyMap()))
@@ -229,4 +358,90 @@ public class EventHandlerTests {
         handler().handle(make(an(Event)));
         verify(logger).cardCreated("the-url");
     }
+
+    @Test public void createsACardInEachMappedProjectAndRecordsThemAll() {
+        mingleProjects = new String[] { "web", "mobile" };
+        createsCardsAsynchronously("web", Promise.of("web-url"));
+        createsCardsAsynchronously("mobile", Promise.of("mobile-url"));
+        Event event = make(an(Event));
+        handler().handle(event);
+        assertEquals("web-url mobile-url", ((InMemoryIssue) event.issue()).mingleUrl);
+        verify(logger).cardCreated("web-url");
+        verify(logger).cardCreated("mobile-url");
+    }
+
+    @Test public void sendsEveryCardBeforeWaitingForAny() {
+        mingleProjects = new String[] { "web", "mobile" };
+        final Promise<String> web = new Promise<String>();
+        createsCardsAsynchronously("web", web);
+        stub(api.createCardAsync(anyString(), eq("mobile"), anyString(), anyString(), anyString(),
+                                 anyMap()))
+            .toAnswer(new org.mockito.stubbing.Answer<Promise<String>>() {
+                    public Promise<String> answer(org.mockito.invocation.InvocationOnMock call) {
+                        web.succeed("web-url");
+                        return Promise.of("mobile-url");
+                    }
+                });
+        Event event = make(an(Event));
+        handler().handle(event);
+        assertEquals("web-url mobile-url", ((InMemoryIssue) event.issue()).mingleUrl);
+    }
+
+    @Test public void leavesOnlyTheCardsThatFailedToTheOutbox() {
+        Outbox outbox = mock(Outbox.class);
+        Outbox.Entry webEntry = new Outbox.Entry(1, "k", "s", "web", "t", "n", "d",
+                                                 new HashMap<String, String>());
+        Outbox.Entry mobileEntry = new Outbox.Entry(2, "k", "s", "mobile", "t", "n", "d",
+                                                    new HashMap<String, String>());
+        stub(outbox.record(anyString(), any(Mingle.Project.Card.class)))
+            .toReturn(webEntry).toReturn(mobileEntry);
+        mingleProjects = new String[] { "web", "mobile" };
+        RuntimeException failure = new RuntimeException();
+        createsCardsAsynchronously("web", Promise.of("web-url"));
+        createsCardsAsynchronously("mobile", Promise.<String>failed(failure));
+        Event event = make(an(Event));
+        handler(outbox).handle(event);
+        verify(outbox).confirm(webEntry);
+        verify(outbox).retryLater(mobileEntry, failure);
+        assertEquals("web-url", ((InMemoryIssue) event.issue()).mingleUrl);
+    }
+
+    private String sentDescription() {
+        ArgumentCaptor<String> description = ArgumentCaptor.forClass(String.class);
+        verify(api).createCard(anyString(), anyString(), anyString(), anyString(),
+                               description.capture(), anyMap());
+        return description.getValue();
+    }
+
+    @Test public void cutsLongDescriptionsShortWithALinkToTheIssue() throws Exception {
+        descriptionBytes = 200;
+        StringBuilder longDescription = new StringBuilder();
+        for (int i = 0; i < 100; i++) longDescription.append("\u20ac frame ").append(i);
+        handler().handle(make(an(Event, with(issue, an(Issue, with(url, "the-url"),
+                                                             with(description, longDescription.toString()))))));
+        String sent = sentDescription();
+        assertTrue(sent, sent.contains("\u20ac frame 0"));
+        assertFalse(sent, sent.contains("frame 99"));
+        assertTrue(sent, sent.contains("Read all of it in JIRA: the-url"));
+        assertTrue(sent.getBytes("UTF-8").length <= 200);
+    }
+
+    @Test public void keepsDescriptionsWithinTheLimitWhole() {
+        descriptionBytes = 200;
+        handler().handle(make(an(Event, with(issue, an(Issue, with(description, "short"))))));
+        String sent = sentDescription();
+        assertTrue(sent.endsWith("short\n"));
+    }
+
+    @Test public void neverSplitsACharacterWhenCuttingShort() throws Exception {
+        StringBuilder emoji = new StringBuilder();
+        for (int i = 0; i < 100; i++) emoji.append("\ud83d\ude00");
+        for (descriptionBytes = 300; descriptionBytes < 304; descriptionBytes++) {
+            reset(api);
+            handler().handle(make(an(Event, with(issue, an(Issue, with(description, emoji.toString()))))));
+            String sent = sentDescription();
+            assertFalse(sent, Character.isHighSurrogate(sent.charAt(sent.indexOf("\n\nThis description") - 1)));
+            assertTrue(sent.getBytes("UTF-8").length <= descriptionBytes);
+        }
+    }
 }
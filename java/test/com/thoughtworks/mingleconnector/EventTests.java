@@ -49,6 +49,29 @@ public class EventTests {
         verify(description).details(anyString(), eq("In Development"));
     }
 
+    @Test public void snapshotsKeepTheIssueAndChangesAsTheyWere() {
+        Event.Changes changes = mock(Event.Changes.class);
+        stub(changes.status()).toReturn("In Development");
+        Issue issue = mock(Issue.class);
+        stub(issue.key()).toReturn("KEY-1");
+        stub(issue.field(com.thoughtworks.mingleconnector.Issue.Field.PRIORITY)).toReturn(Maybe.definitely("High"));
+
+        Event snapshot = new Event(issue, changes, new WorkflowNotIncludingPassToDevelopment()).snapshot();
+        stub(changes.status()).toReturn("Closed");
+        stub(issue.key()).toReturn("KEY-2");
+
+        Event.Description description = mock(Event.Description.class);
+        snapshot.complete(description);
+        verify(description).details("KEY-1", "In Development");
+        assertEquals("High", snapshot.issue().field(com.thoughtworks.mingleconnector.Issue.Field.PRIORITY).force());
+    }
+
+    @Test public void snapshotsWriteTheMingleUrlBackToTheOriginalIssue() {
+        Issue issue = mock(Issue.class);
+        new Event(issue, mock(Event.Changes.class), null).snapshot().issue().mingleUrl("the-url");
+        verify(issue).mingleUrl("the-url");
+    }
+
     private class WorkflowIncludingPassToDevelopment implements Event.Workflow {
         public boolean isPassToDevelopment(Event.Changes changes, Issue issue) {
             return true;
@@ -0,0 +1,73 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class FormEntityTests {
+    private final List<Web.Param> params = new ArrayList<Web.Param>();
+
+    private String body() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new FormEntity(params).writeRequest(out);
+        return out.toString("US-ASCII");
+    }
+
+    private String expected() throws IOException {
+        StringBuilder expected = new StringBuilder();
+        for (Web.Param param : params) {
+            if (expected.length() > 0) expected.append('&');
+            expected.append(URLEncoder.encode(param.name, "UTF-8")).append('=')
+                .append(URLEncoder.encode(param.value, "UTF-8"));
+        }
+        return expected.toString();
+    }
+
+    @Test public void joinsParametersAsAForm() throws IOException {
+        params.add(new Web.Param("card[name]", "the name"));
+        params.add(new Web.Param("card[card_type_name]", "Bug"));
+        assertEquals("card%5Bname%5D=the+name&card%5Bcard_type_name%5D=Bug", body());
+    }
+
+    @Test public void encodesCharactersOutsideAsciiAsUtf8() throws IOException {
+        params.add(new Web.Param("card[description]", "caf\u00e9 \u20ac \ud83d\ude00 & more"));
+        assertEquals(expected(), body());
+    }
+
+    @Test public void encodesDescriptionsLongerThanItsBuffer() throws IOException {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 5000; i++) description.append("line ").append(i).append('\n');
+        params.add(new Web.Param("card[description]", description.toString()));
+        assertEquals(expected(), body());
+    }
+
+    @Test public void reportsTheLengthOfWhatItWrites() throws IOException {
+        params.add(new Web.Param("card[name]", "na\u00efve name"));
+        params.add(new Web.Param("card[description]", "x"));
+        assertEquals(body().length(), new FormEntity(params).getContentLength());
+    }
+
+    @Test public void writesTheSameBodyEachTime() throws IOException {
+        params.add(new Web.Param("card[name]", "name"));
+        assertEquals(body(), body());
+    }
+}
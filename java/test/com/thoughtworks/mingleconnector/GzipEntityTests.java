@@ -0,0 +1,66 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class GzipEntityTests {
+    private final List<Web.Param> params = new ArrayList<Web.Param>();
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int read; (read = in.read(buffer)) >= 0; ) out.write(buffer, 0, read);
+        return out.toString("US-ASCII");
+    }
+
+    private static byte[] written(GzipEntity entity) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeRequest(out);
+        return out.toByteArray();
+    }
+
+    @Test public void compressesTheForm() throws IOException {
+        params.add(new Web.Param("card[name]", "the name"));
+        params.add(new Web.Param("card[card_type_name]", "Bug"));
+        assertEquals("card%5Bname%5D=the+name&card%5Bcard_type_name%5D=Bug",
+                     gunzip(written(new GzipEntity(new FormEntity(params)))));
+    }
+
+    @Test public void givesTheLengthOfWhatItWrites() throws IOException {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 5000; i++) description.append("at Frame.call(Frame.java:").append(i).append(")\n");
+        params.add(new Web.Param("card[description]", description.toString()));
+        FormEntity form = new FormEntity(params);
+        GzipEntity entity = new GzipEntity(form);
+        assertEquals(written(entity).length, entity.getContentLength());
+        assertTrue(entity.getContentLength() < form.getContentLength() / 5);
+    }
+
+    @Test public void keepsTheContentTypeOfTheForm() {
+        assertEquals(new FormEntity(params).getContentType(),
+                     new GzipEntity(new FormEntity(params)).getContentType());
+    }
+}
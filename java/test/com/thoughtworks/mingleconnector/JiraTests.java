@@ -14,7 +14,15 @@
 // 
 package com.thoughtworks.mingleconnector;
 
+import java.util.Arrays;
 import java.util.Date;
+
+import com.atlassian.jira.ComponentManager;
+import com.atlassian.jira.event.issue.IssueEvent;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.opensymphony.user.User;
+import org.ofbiz.core.entity.GenericEntity;
+import org.ofbiz.core.entity.GenericValue;
 import static org.junit.Assert.*;
 import org.junit.*;
 import static org.mockito.Mockito.*;
@@ -38,6 +46,105 @@ public class JiraTests {
         assertHasNoValue(issue.field(Issue.Field.DUE_DATE));
     }
 
+    @Test public void issueAddsOnlyTheMingleUrlsItDoesNotHaveYet() {
+        com.atlassian.jira.issue.Issue jiraIssue = mock(com.atlassian.jira.issue.Issue.class);
+        CustomField mingleCard = mock(CustomField.class);
+        Jira.Components components = mock(Jira.Components.class);
+        when(components.mingleCard()).thenReturn(mingleCard);
+        when(mingleCard.getValue(jiraIssue)).thenReturn("web-url");
+        new Jira.Issue(jiraIssue, components, mock(Logger.class)).addMingleUrl("mobile-url web-url api-url");
+        verify(mingleCard).createValue(jiraIssue, "web-url mobile-url api-url");
+    }
+
+    @Test public void issueLeavesItsMingleUrlsAloneWhenItHasThemAll() {
+        com.atlassian.jira.issue.Issue jiraIssue = mock(com.atlassian.jira.issue.Issue.class);
+        CustomField mingleCard = mock(CustomField.class);
+        Jira.Components components = mock(Jira.Components.class);
+        when(components.mingleCard()).thenReturn(mingleCard);
+        when(mingleCard.getValue(jiraIssue)).thenReturn("web-url mobile-url");
+        new Jira.Issue(jiraIssue, components, mock(Logger.class)).addMingleUrl("mobile-url");
+        verify(mingleCard, never()).createValue(any(com.atlassian.jira.issue.Issue.class), any());
+    }
+
+    @Test public void changesReadTheChangeLogOnlyOnce() {
+        GenericValue changeLog = mock(GenericValue.class);
+        when(changeLog.getRelated("ChildChangeItem"))
+            .thenReturn(Arrays.asList(new GenericEntity("status", "In Development")));
+        IssueEvent event = mock(IssueEvent.class);
+        when(event.getChangeLog()).thenReturn(changeLog);
+
+        Jira.Changes changes = new Jira.Changes(event);
+        assertEquals("In Development", changes.status());
+        assertEquals("In Development", changes.status());
+        verify(changeLog, times(1)).getRelated("ChildChangeItem");
+    }
+
+    @Test public void changesFindFieldsWhateverTheirCase() {
+        Jira.Changes changes = changes(new GenericEntity("Assignee", "bob"),
+                                       new GenericEntity("Status", "Resolved"));
+        assertEquals("Resolved", changes.status());
+        assertEquals("bob", changes.change("ASSIGNEE").force((Jira.Change) null).newValue);
+        assertNull(changes.change("Priority").force((Jira.Change) null));
+    }
+
+    @Test public void changesUseTheFirstChangeToAField() {
+        assertEquals("Open", changes(new GenericEntity("status", "Open"),
+                                     new GenericEntity("status", "Closed")).status());
+    }
+
+    @Test public void changesHaveNoStatusWithoutAChangeLog() {
+        assertNull(changes().status());
+    }
+
+    @Test public void componentsRememberTheBaseUrlUntilTheTimeoutPasses() {
+        final Holder<Integer> lookups = new Holder<Integer>(0);
+        ComponentManager.jira(new JiraSimulator() {
+                public void updateProperty(String issueKey, String propertyName, Object value) {}
+                public String baseURL() {
+                    lookups.value++;
+                    return "http://jira";
+                }
+            });
+        final Holder<Long> now = new Holder<Long>(0L);
+        Jira.Components components = new Jira.Components(1000) {
+                protected long now() { return now.value; }
+            };
+        assertEquals("http://jira", components.baseURL());
+        now.value = 999L;
+        assertEquals("http://jira", components.baseURL());
+        assertEquals(Integer.valueOf(1), lookups.value);
+        now.value = 1000L;
+        components.baseURL();
+        assertEquals(Integer.valueOf(2), lookups.value);
+        components.invalidate();
+        components.baseURL();
+        assertEquals(Integer.valueOf(3), lookups.value);
+    }
+
+    @Test public void componentsRememberTheMingleCardField() {
+        Jira.Components components = new Jira.Components(1000);
+        assertSame(components.mingleCard(), components.mingleCard());
+    }
+
+    @Test public void componentsLookEverythingUpEachTimeWithoutATimeout() {
+        Jira.Components components = new Jira.Components(0);
+        assertNotSame(components.mingleCard(), components.mingleCard());
+    }
+
+    @Test public void componentsRememberFullNamesByUserName() {
+        User user = mock(User.class);
+        when(user.getName()).thenReturn("bob");
+        when(user.getFullName()).thenReturn("Bob Brown");
+        Jira.Components components = new Jira.Components(1000);
+        assertEquals("Bob Brown", components.fullName(user));
+        assertEquals("Bob Brown", components.fullName(user));
+        verify(user, times(1)).getFullName();
+    }
+
+    private static Jira.Changes changes(GenericEntity... items) {
+        return new Jira.Changes(new IssueEvent(null, Arrays.asList(items)));
+    }
+
     private <T> void assertHasNoValue(Maybe<T> maybe) {
         final Holder<Boolean> hasValue = new Holder<Boolean>(false);
         maybe.ifValue(new Action<T>() {
@@ -0,0 +1,165 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import static com.thoughtworks.mingleconnector.TestSupport.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import static org.mockito.Mockito.*;
+
+public class JournalOutboxTests {
+    private final Mingle.API api = mock(Mingle.API.class);
+    private final Outbox.Writeback writeback = mock(Outbox.Writeback.class);
+    private final Logger logger = mock(Logger.class);
+    private File directory;
+    private JournalOutbox outbox;
+
+    @Before public void createDirectory() throws IOException {
+        directory = File.createTempFile("outbox", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After public void deleteDirectory() {
+        if (outbox != null) outbox.shutdown();
+        for (File file : directory.listFiles()) file.delete();
+        directory.delete();
+    }
+
+    private JournalOutbox outbox() {
+        return outbox(1024 * 1024);
+    }
+
+    private JournalOutbox outbox(long segmentBytes) {
+        if (outbox != null) outbox.shutdown();
+        outbox = new JournalOutbox(directory, segmentBytes, api, writeback, logger);
+        return outbox;
+    }
+
+    private Mingle.Project.Card card(String name) {
+        Mingle.Project.Card card = new Mingle.Project(api, "the-server", "the-project")
+            .addCard("Story", name, "the-description");
+        card.property("JIRA issue", "KEY-1");
+        return card;
+    }
+
+    @Test public void keepsRecordedCardsPendingAcrossRestarts() {
+        outbox().record("KEY-1", card("one"));
+        assertEquals(1, outbox().pending());
+    }
+
+    @Test public void forgetsConfirmedCards() {
+        Outbox.Entry entry = outbox().record("KEY-1", card("one"));
+        outbox.confirm(entry);
+        assertEquals(0, outbox().pending());
+    }
+
+    @Test public void sendsPendingCardsWhenDrained() {
+        outbox().record("KEY-1", card("one"));
+        outbox().drain();
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put("JIRA issue", "KEY-1");
+        verify(api).createCard("the-server", "the-project", "Story", "one", "the-description",
+                               properties);
+    }
+
+    @Test public void writesTheUrlOfDrainedCardsBackToTheirIssues() {
+        stub(api.createCard(anyString(), anyString(), anyString(), anyString(), anyString(),
+                            anyMap()))
+            .toReturn("the-url");
+        outbox().record("KEY-1", card("one"));
+        outbox().drain();
+        verify(writeback).mingleUrl("KEY-1", "the-url");
+        assertEquals(0, outbox().pending());
+    }
+
+    @Test public void leavesCardsThatCannotBeSentPending() {
+        RuntimeException failure = new RuntimeException();
+        stub(api.createCard(anyString(), anyString(), anyString(), anyString(), anyString(),
+                            anyMap()))
+            .toThrow(failure);
+        outbox().record("KEY-1", card("one"));
+        outbox().drain();
+        verify(logger).deferredCard("KEY-1", failure);
+        assertEquals(1, outbox().pending());
+    }
+
+    @Test public void discardsACardMingleRejectsAndSendsTheCardsBehindIt() {
+        RuntimeException rejected = new ResponseValidatingWebClient.FailedResponseException(422, "no");
+        stub(api.createCard(anyString(), anyString(), anyString(), eq("bad"), anyString(), anyMap()))
+            .toThrow(rejected);
+        stub(api.createCard(anyString(), anyString(), anyString(), eq("good"), anyString(), anyMap()))
+            .toReturn("the-url");
+        outbox().record("KEY-1", card("bad"));
+        outbox().record("KEY-2", card("good"));
+        outbox().drain();
+        verify(logger).discardedCard("KEY-1", rejected);
+        verify(writeback).mingleUrl("KEY-2", "the-url");
+        assertEquals(0, outbox().pending());
+    }
+
+    @Test public void keepsCardsPendingWhenMingleFailsWithAServerError() {
+        RuntimeException failure = new ResponseValidatingWebClient.FailedResponseException(503, "down");
+        stub(api.createCard(anyString(), anyString(), anyString(), anyString(), anyString(),
+                            anyMap()))
+            .toThrow(failure);
+        outbox().record("KEY-1", card("one"));
+        outbox().record("KEY-2", card("two"));
+        outbox().drain();
+        verify(api, times(1)).createCard(anyString(), anyString(), anyString(), anyString(),
+                                         anyString(), anyMap());
+        assertEquals(2, outbox().pending());
+    }
+
+    @Test public void doesNotSendCardsThatAreStillBeingSent() {
+        outbox().record("KEY-1", card("one"));
+        outbox.drain();
+        verifyZeroInteractions(api);
+    }
+
+    @Test public void sendsCardsAgainOnceTheyHaveBeenDeferred() {
+        Outbox.Entry entry = outbox().record("KEY-1", card("one"));
+        outbox.retryLater(entry, new RuntimeException());
+        outbox.drain();
+        verify(api).createCard(anyString(), anyString(), anyString(), eq("one"), anyString(),
+                               anyMap());
+    }
+
+    @Test public void compactsConfirmedCardsIntoASingleSegment() {
+        outbox(1);
+        for (int i = 0; i < 5; i++) {
+            outbox.confirm(outbox.record("KEY-" + i, card("card-" + i)));
+        }
+        outbox.record("KEY-5", card("card-5"));
+        assertEquals(1, directory.listFiles().length);
+        assertEquals(1, outbox(1).pending());
+    }
+
+    @Test public void ignoresARecordThatWasOnlyPartlyWritten() throws IOException {
+        outbox().record("KEY-1", card("one"));
+        outbox.shutdown();
+        FileOutputStream out = new FileOutputStream(directory.listFiles()[0], true);
+        out.write(new byte[] { 0, 0, 1, 0, 42 });
+        out.close();
+        assertEquals(1, outbox().pending());
+    }
+}
@@ -0,0 +1,130 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.LoggingEvent;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class Log4JLoggerTests {
+    private final org.apache.log4j.Logger log4j = org.apache.log4j.Logger.getLogger("mingle-connector");
+    private final List<LoggingEvent> appended = Collections.synchronizedList(new ArrayList<LoggingEvent>());
+    private final List<String> appendedBy = Collections.synchronizedList(new ArrayList<String>());
+    private final AppenderSkeleton appender = new AppenderSkeleton() {
+            protected void append(LoggingEvent event) {
+                appended.add(event);
+                appendedBy.add(Thread.currentThread().getName());
+            }
+            public boolean requiresLayout() { return false; }
+            public void close() { }
+        };
+    private final Logger logger = new Log4JLogger();
+    private Level level;
+
+    @Before public void addAppender() {
+        level = log4j.getLevel();
+        log4j.addAppender(appender);
+    }
+
+    @After public void removeAppender() {
+        Log4JLogger.flush(1000);
+        log4j.removeAppender(appender);
+        log4j.setLevel(level);
+    }
+
+    @Test public void writesFromABackgroundThreadAsTheCaller() {
+        log4j.setLevel(Level.INFO);
+        logger.cardCreated("the-url");
+        assertTrue(Log4JLogger.flush(1000));
+        assertEquals(1, appended.size());
+        assertEquals("Created Mingle card at the-url", appended.get(0).getRenderedMessage());
+        assertEquals(Thread.currentThread().getName(), appended.get(0).getThreadName());
+        assertFalse(appendedBy.contains(Thread.currentThread().getName()));
+    }
+
+    @Test public void keepsTheExceptionWithTheMessage() {
+        RuntimeException failure = new RuntimeException("boom");
+        logger.failedEvent("KEY-1", failure);
+        assertTrue(Log4JLogger.flush(1000));
+        assertEquals(Level.ERROR, appended.get(0).getLevel());
+        assertSame(failure, appended.get(0).getThrowableInformation().getThrowable());
+    }
+
+    @Test public void startsMessagesWithTheCorrelationIdOfTheCurrentTrace() {
+        Trace previous = new Trace("the-id", null).enter();
+        try {
+            logger.cardCreated("the-url");
+        } finally {
+            Trace.resume(previous);
+        }
+        assertTrue(Log4JLogger.flush(1000));
+        assertEquals("[the-id] Created Mingle card at the-url", appended.get(0).getRenderedMessage());
+        assertEquals("the-id", appended.get(0).getProperty("correlationId"));
+    }
+
+    @Test public void doesNotBuildMessagesBelowTheLevel() {
+        log4j.setLevel(Level.INFO);
+        List params = new AbstractList() {
+                public Object get(int index) { throw new AssertionError("parameters were read"); }
+                public int size() { throw new AssertionError("parameters were read"); }
+                public String toString() { throw new AssertionError("parameters were read"); }
+            };
+        logger.webPost("the-url", params);
+        assertTrue(Log4JLogger.flush(1000));
+        assertTrue(appended.isEmpty());
+    }
+
+    @Test public void keepsTheNdcAndMdcOfTheCaller() {
+        NDC.push("the-ndc");
+        MDC.put("user", "the-user");
+        try {
+            logger.cardCreated("the-url");
+        } finally {
+            NDC.pop();
+            MDC.remove("user");
+        }
+        assertTrue(Log4JLogger.flush(1000));
+        assertEquals("the-ndc", appended.get(0).getNDC());
+        assertEquals("the-user", appended.get(0).getMDC("user"));
+    }
+
+    @Test public void stopsItsThreadWhenShutDownAndStartsItAgainWhenNeeded() {
+        logger.cardCreated("one");
+        assertTrue(Log4JLogger.shutdown(1000));
+        assertEquals(1, appended.size());
+        assertFalse(appending());
+        logger.cardCreated("two");
+        assertTrue(Log4JLogger.flush(1000));
+        assertEquals(2, appended.size());
+        assertTrue(appending());
+    }
+
+    private static boolean appending() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("mingle-connector-log")) return true;
+        }
+        return false;
+    }
+}
@@ -58,4 +58,11 @@ public class LoggingWebClientTests {
         client().post(null, null);
         verify(logger).webResponse(550);
     }
+
+    @Test public void logsAsynchronousPostsAndTheirResponses() {
+        wrapped = new CannedStatusWeb(201);
+        assertEquals(201, client().postAsync("a-url", null).join().statusCode());
+        verify(logger).webPost(eq("a-url"), anyList());
+        verify(logger).webResponse(201);
+    }
 }
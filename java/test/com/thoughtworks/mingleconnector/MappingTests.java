@@ -43,6 +43,44 @@ public class MappingTests {
         Mapping.parse("a=>b").get("unmapped").force();
     }
 
+    @Test public void ignoresEmptyEntries() {
+        Mapping map = Mapping.parse("key1=>value1, ,key2=>value2,");
+        assertEquals("value1", map.get("key1").force());
+        assertEquals("value2", map.get("key2").force());
+    }
+
+    @Test(expected=IllegalArgumentException.class) public void rejectsEntriesWithoutAnArrow() {
+        Mapping.parse("key1=>value1, key2");
+    }
+
+    @Test(expected=IllegalArgumentException.class) public void rejectsEntriesWithoutARightValue() {
+        Mapping.parse("key1=>");
+    }
+
+    @Test(expected=IllegalArgumentException.class) public void rejectsEntriesWithMoreThanOneArrow() {
+        Mapping.parse("key1=>value1=>value2");
+    }
+
+    @Test(expected=IllegalArgumentException.class) public void rejectsKeysThatAreMappedTwice() {
+        Mapping.parse("key=>value1, KEY=>value2");
+    }
+
+    @Test public void laterAdditionsReplaceEarlierOnesWithoutRegardToCase() {
+        Mapping map = Mapping.parse("key=>value1");
+        map.add("KEY", "value2");
+        assertEquals("value2", map.get("key").force());
+    }
+
+    @Test public void preservesTheOrderOfEntriesWhenIterating() {
+        final List<String> received = new ArrayList<String>();
+        Mapping.parse("c=>1, a=>2, b=>3").each(new Mapping.Receiver() {
+                public void receive(String key, String value) {
+                    received.add(key);
+                }
+            });
+        assertEquals(Arrays.asList("c", "a", "b"), received);
+    }
+
     @Test public void isEmptyIfThereAreNoMappingsDefined() {
         assertTrue(Mapping.parse("").isEmpty());
     }
@@ -0,0 +1,85 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import static com.thoughtworks.mingleconnector.TestSupport.*;
+
+public class MeteredWebClientTests {
+    private final Metrics metrics = new Metrics();
+
+    @Test public void timesEachPost() {
+        new MeteredWebClient(new CannedStatusWeb(201), metrics).post("url", null);
+        assertEquals(1, metrics.latency(Metrics.Stage.MINGLE_POST).count());
+        assertTrue(metrics.getFailuresByStatusCode().isEmpty());
+    }
+
+    @Test public void countsErrorResponsesByStatusCode() {
+        new MeteredWebClient(new CannedStatusWeb(503), metrics).post("url", null);
+        assertEquals(Long.valueOf(1), metrics.getFailuresByStatusCode().get(503));
+    }
+
+    @Test public void countsFailedRequestsAsHavingNoResponse() {
+        Web broken = new Web.Blocking() {
+                public Response post(String url, java.util.List params) {
+                    throw new RuntimeException("Connection refused");
+                }
+                public String get(String url) {
+                    throw new RuntimeException("Connection refused");
+                }
+            };
+        try {
+            new MeteredWebClient(broken, metrics).post("url", null);
+            fail();
+        } catch (RuntimeException expected) {}
+        assertEquals(Long.valueOf(1), metrics.getFailuresByStatusCode().get(Metrics.NO_RESPONSE));
+        assertEquals(1, metrics.latency(Metrics.Stage.MINGLE_POST).count());
+    }
+
+    @Test public void doesNotCountPostsHeldBackByTheInFlightLimit() {
+        Web busy = new Web.Blocking() {
+                public Response post(String url, java.util.List params) {
+                    throw new WebClient.InFlightLimitException(url);
+                }
+                public String get(String url) {
+                    return "";
+                }
+            };
+        try {
+            new MeteredWebClient(busy, metrics).post("url", null);
+            fail();
+        } catch (WebClient.InFlightLimitException expected) {}
+        assertTrue(metrics.getFailuresByStatusCode().isEmpty());
+        assertEquals(0, metrics.latency(Metrics.Stage.MINGLE_POST).count());
+    }
+
+    @Test public void doesNotCountPostsThatFoundNoFreeConnection() {
+        Web busy = new Web.Blocking() {
+                public Response post(String url, java.util.List params) {
+                    throw new WebClient.LocalLimitException("No free connection", null);
+                }
+                public String get(String url) {
+                    return "";
+                }
+            };
+        try {
+            new MeteredWebClient(busy, metrics).post("url", null);
+            fail();
+        } catch (WebClient.LocalLimitException expected) {}
+        assertTrue(metrics.getFailuresByStatusCode().isEmpty());
+        assertEquals(0, metrics.latency(Metrics.Stage.MINGLE_POST).count());
+    }
+}
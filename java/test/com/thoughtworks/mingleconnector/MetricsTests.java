@@ -0,0 +1,85 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class MetricsTests {
+    private final Metrics metrics = new Metrics();
+
+    @Test public void countsFailuresByStatusCode() {
+        metrics.failure(500);
+        metrics.failure(422);
+        metrics.failure(500);
+        Map<Integer, Long> failures = metrics.getFailuresByStatusCode();
+        assertEquals(Long.valueOf(2), failures.get(500));
+        assertEquals(Long.valueOf(1), failures.get(422));
+        assertEquals(2, failures.size());
+    }
+
+    @Test public void recordsTheLatencyOfEachStageSeparately() {
+        metrics.since(Metrics.Stage.MINGLE_POST, System.nanoTime());
+        assertEquals(1, metrics.latency(Metrics.Stage.MINGLE_POST).count());
+        assertEquals(0, metrics.latency(Metrics.Stage.WRITEBACK).count());
+    }
+
+    @Test public void readsBackPercentilesWithinAnEighth() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (long micros = 1; micros <= 100000; micros++) histogram.record(micros);
+        assertWithinAnEighth(50000, histogram.percentile(0.5));
+        assertWithinAnEighth(99000, histogram.percentile(0.99));
+        assertWithinAnEighth(99900, histogram.percentile(0.999));
+        assertEquals(100000, histogram.percentile(1));
+        assertEquals(100000, histogram.max());
+        assertEquals(50000.5, histogram.mean(), 0.001);
+    }
+
+    @Test public void isExactForSmallLatencies() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        histogram.record(3);
+        histogram.record(5);
+        assertEquals(3, histogram.percentile(0.5));
+        assertEquals(5, histogram.percentile(0.99));
+    }
+
+    @Test public void reportsZeroWhenNothingWasRecorded() {
+        assertEquals(0, new Metrics.Histogram().percentile(0.99));
+        assertEquals(Double.valueOf(0), metrics.getMinglePostLatency().get("p99"));
+    }
+
+    @Test public void placesEveryLatencyInsideItsBucket() {
+        for (long micros : new long[] {0, 7, 8, 15, 16, 17, 1000, 123456789, Long.MAX_VALUE}) {
+            int bucket = Metrics.Histogram.bucket(micros);
+            assertTrue(micros <= Metrics.Histogram.upperBound(bucket));
+            assertTrue(bucket == 0 || micros > Metrics.Histogram.upperBound(bucket - 1));
+        }
+    }
+
+    @Test public void summarisesInMilliseconds() {
+        metrics.latency(Metrics.Stage.CARD_ASSEMBLY).record(2000);
+        Map<String, Double> summary = metrics.getCardAssemblyLatency();
+        assertEquals(1, summary.get("count"), 0);
+        assertEquals(2, summary.get("max"), 0);
+        assertEquals(2, summary.get("p50"), 0);
+    }
+
+    private static void assertWithinAnEighth(long expected, long actual) {
+        assertTrue(actual + " is not close to " + expected,
+                   Math.abs(actual - expected) <= expected / 8);
+    }
+}
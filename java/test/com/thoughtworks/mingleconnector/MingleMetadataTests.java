@@ -0,0 +1,178 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import static org.mockito.Mockito.*;
+
+public class MingleMetadataTests {
+    private static final String CARD_TYPES =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+        "<card_types type=\"array\">" +
+        "<card_type><name>Story</name></card_type>" +
+        "<card_type><name>Defect</name></card_type>" +
+        "</card_types>";
+    private static final String PROPERTIES =
+        "<property_definitions type=\"array\">" +
+        "<property_definition><name>JIRA issue</name><is_managed>false</is_managed>" +
+        "<card_types type=\"array\"><card_type><name>Story</name></card_type>" +
+        "<card_type><name>Defect</name></card_type></card_types></property_definition>" +
+        "<property_definition><name>Priority</name><is_managed>true</is_managed>" +
+        "<property_value_details type=\"array\">" +
+        "<property_value><value>High</value></property_value>" +
+        "<property_value><value>Low</value></property_value>" +
+        "</property_value_details></property_definition>" +
+        "<property_definition><name>Severity</name><is_managed>false</is_managed>" +
+        "<card_types type=\"array\"><card_type><name>Defect</name></card_type></card_types>" +
+        "</property_definition>" +
+        "</property_definitions>";
+
+    private final List<String> fetched = new ArrayList<String>();
+    private volatile boolean available = true;
+    private volatile CountDownLatch fetching, released;
+    private final Logger logger = mock(Logger.class);
+    private final MingleMetadata metadata = new MingleMetadata(new MingleMetadata.Source() {
+            public String get(String url) {
+                fetched.add(url);
+                if (released != null) {
+                    fetching.countDown();
+                    try {
+                        released.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                if (!available) throw new RuntimeException("Connection refused");
+                return url.endsWith("/card_types.xml") ? CARD_TYPES : PROPERTIES;
+            }
+        }, logger, 0);
+    private final Mingle.Project project = new Mingle.Project(null, "http://mingle", "support");
+
+    @After public void shutdown() {
+        metadata.shutdown();
+    }
+
+    private Mingle.Project.Card card(String type, String... properties) {
+        Mingle.Project.Card card = project.addCard(type, "name", "description");
+        for (int i = 0; i < properties.length; i += 2) card.property(properties[i], properties[i + 1]);
+        return card;
+    }
+
+    @Test public void fetchesTheCardTypesAndPropertiesOfTheProject() {
+        metadata.validate(card("Story"));
+        assertEquals("http://mingle/api/v2/projects/support/card_types.xml", fetched.get(0));
+        assertEquals("http://mingle/api/v2/projects/support/property_definitions.xml", fetched.get(1));
+    }
+
+    @Test public void fetchesEachProjectOnlyOnce() {
+        metadata.validate(card("Story"));
+        metadata.validate(card("Defect"));
+        assertEquals(2, fetched.size());
+    }
+
+    @Test public void correctsTheCaseOfNamesAndValues() {
+        Mingle.Project.Card card = metadata.validate(card("story", "jira ISSUE", "ABC-1",
+                                                          "priority", "high"));
+        assertEquals("Story", card.type());
+        assertEquals("ABC-1", card.properties().get("JIRA issue"));
+        assertEquals("High", card.properties().get("Priority"));
+        assertEquals("name", card.name());
+        assertEquals("description", card.description());
+    }
+
+    @Test public void rejectsUnknownCardTypes() {
+        try {
+            metadata.validate(card("Epic"));
+            fail();
+        } catch (MingleMetadata.InvalidCardException e) {
+            assertEquals("Card type 'Epic' does not exist in Mingle project support", e.getMessage());
+        }
+    }
+
+    @Test public void rejectsUnknownProperties() {
+        try {
+            metadata.validate(card("Story", "Tool", "JIRA"));
+            fail();
+        } catch (MingleMetadata.InvalidCardException e) {
+            assertEquals("Property 'Tool' does not exist in Mingle project support", e.getMessage());
+        }
+    }
+
+    @Test public void rejectsValuesThatManagedPropertiesDoNotAllow() {
+        try {
+            metadata.validate(card("Story", "Priority", "Urgent"));
+            fail();
+        } catch (MingleMetadata.InvalidCardException e) {
+            assertEquals("'Urgent' is not a value of property 'Priority' in Mingle project support",
+                         e.getMessage());
+        }
+    }
+
+    @Test(expected=MingleMetadata.InvalidCardException.class)
+    public void rejectsPropertiesThatDoNotApplyToTheCardType() {
+        metadata.validate(card("Story", "Severity", "Bad"));
+    }
+
+    @Test public void acceptsAnyValueOfUnmanagedProperties() {
+        assertEquals("Bad", metadata.validate(card("Defect", "Severity", "Bad")).properties().get("Severity"));
+    }
+
+    @Test public void sendsCardsUncheckedWhenTheMetadataCannotBeFetched() {
+        available = false;
+        Mingle.Project.Card card = card("Epic");
+        assertSame(card, metadata.validate(card));
+        verify(logger).unavailableMetadata(eq("support"), any(RuntimeException.class));
+    }
+
+    @Test public void startsCheckingOnceTheMetadataIsRefreshed() {
+        available = false;
+        metadata.validate(card("Epic"));
+        available = true;
+        metadata.refresh();
+        try {
+            metadata.validate(card("Epic"));
+            fail();
+        } catch (MingleMetadata.InvalidCardException expected) {}
+    }
+
+    @Test public void keepsCheckingAgainstTheOldMetadataWhileARefreshIsFetched() throws Exception {
+        metadata.validate(card("Story"));
+        fetching = new CountDownLatch(1);
+        released = new CountDownLatch(1);
+        Thread refresh = new Thread() {
+                public void run() { metadata.refresh(); }
+            };
+        refresh.start();
+        fetching.await();
+        try {
+            metadata.validate(card("Epic"));
+            fail();
+        } catch (MingleMetadata.InvalidCardException expected) {
+        } finally {
+            released.countDown();
+            refresh.join();
+        }
+    }
+
+    @Test(expected=RuntimeException.class) public void refusesDocumentTypeDeclarations() {
+        MingleMetadata.document("<!DOCTYPE card_types [<!ENTITY x SYSTEM \"file:///etc/passwd\">]>" +
+                                "<card_types>&x;</card_types>");
+    }
+}
@@ -70,6 +70,15 @@ public class MingleTests {
         assertEquals("the-url", card.url());
     }
 
+    @Test public void hangsOnToTheURLOfACardSavedAsynchronously() {
+        when(api.createCardAsync(anyString(), anyString(), anyString(), anyString(), anyString(),
+                                 anyMap()))
+            .thenReturn(Promise.of("the-url"));
+        Mingle.Project.Card card = mingle().project("p").addCard("Bug", "name", "description");
+        assertEquals("the-url", card.saveAsync().join());
+        assertEquals("the-url", card.url());
+    }
+
     private Creator creator() { return new Creator(); }
 
     private class Creator {
@@ -0,0 +1,104 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class PipelineTests {
+    private Map<String, String> params(String mingle) {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put("Mingle server", mingle);
+        params.put("Project mappings", "ABC=>abc");
+        params.put("Handover statuses", "ABC=>In Development");
+        params.put("Mingle user", "user");
+        params.put("Mingle password", "password");
+        return params;
+    }
+
+    private Config config(String mingle) {
+        return new Config(params(mingle));
+    }
+
+    @Test public void isSharedBetweenIdenticalConfigurations() {
+        Pipeline one = Pipeline.acquire(config("http://mingle"));
+        Pipeline two = Pipeline.acquire(config("http://mingle"));
+        assertSame(one, two);
+        one.release();
+        two.release();
+    }
+
+    @Test public void isNotSharedBetweenDifferentConfigurations() {
+        Pipeline one = Pipeline.acquire(config("http://mingle"));
+        Pipeline two = Pipeline.acquire(config("http://other-mingle"));
+        assertNotSame(one, two);
+        one.release();
+        two.release();
+    }
+
+    @Test public void isSharedBetweenConfigurationsThatOnlyDifferInTheirRules() {
+        Map<String, String> params = params("http://mingle");
+        params.put("Project mappings", "ABC=>abc, DEF=>def");
+        params.put("Handover statuses", "ABC=>In Development, DEF=>Ready");
+        Pipeline one = Pipeline.acquire(config("http://mingle"));
+        Pipeline two = Pipeline.acquire(new Config(params));
+        assertSame(one, two);
+        assertNotSame(one.rules(config("http://mingle")), two.rules(new Config(params)));
+        one.release();
+        two.release();
+    }
+
+    @Test public void isBuiltAfreshOnceEveryUserHasReleasedIt() {
+        Pipeline one = Pipeline.acquire(config("http://mingle"));
+        one.release();
+        Pipeline two = Pipeline.acquire(config("http://mingle"));
+        assertNotSame(one, two);
+        two.release();
+    }
+
+    @Test public void publishesItsMetricsUntilReleased() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("com.thoughtworks.mingleconnector:type=Metrics,*");
+        Pipeline pipeline = Pipeline.acquire(config("http://mingle"));
+        Set<ObjectName> names = server.queryNames(pattern, null);
+        assertEquals(1, names.size());
+        assertEquals(0L, server.getAttribute(names.iterator().next(), "EventsSeen"));
+        pipeline.release();
+        assertTrue(server.queryNames(pattern, null).isEmpty());
+    }
+
+    @Test public void publishesItsBackfillUntilReleased() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("com.thoughtworks.mingleconnector:type=Backfill,*");
+        Pipeline pipeline = Pipeline.acquire(config("http://mingle"));
+        assertEquals(1, server.queryNames(pattern, null).size());
+        pipeline.release();
+        assertTrue(server.queryNames(pattern, null).isEmpty());
+    }
+
+    @Test(expected=IllegalArgumentException.class) public void rejectsInvalidConfiguration() {
+        Map<String, String> params = params("http://mingle");
+        params.remove("Mingle server");
+        Pipeline.acquire(new Config(params));
+    }
+}
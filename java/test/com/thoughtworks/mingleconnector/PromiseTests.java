@@ -0,0 +1,123 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class PromiseTests {
+    private final List<String> heard = new ArrayList<String>();
+    private final Promise.Callback<String> listener = new Promise.Callback<String>() {
+            public void succeeded(String value) { heard.add("succeeded " + value); }
+            public void failed(RuntimeException e) { heard.add("failed " + e.getMessage()); }
+        };
+
+    @Test public void tellsCallbacksOfTheValueOnceItArrives() {
+        Promise<String> promise = new Promise<String>();
+        promise.then(listener);
+        assertTrue(heard.isEmpty());
+        promise.succeed("url");
+        assertEquals("succeeded url", heard.get(0));
+    }
+
+    @Test public void tellsLateCallbacksStraightAway() {
+        Promise.<String>failed(new RuntimeException("refused")).then(listener);
+        assertEquals("failed refused", heard.get(0));
+    }
+
+    @Test public void keepsTheFirstResult() {
+        Promise<String> promise = new Promise<String>();
+        assertTrue(promise.succeed("one"));
+        assertFalse(promise.fail(new RuntimeException("two")));
+        assertEquals("one", promise.join());
+    }
+
+    @Test public void mapsValues() {
+        Promise<Integer> length = Promise.of("four").map(new Function<String, Integer>() {
+                public Integer call(String s) { return s.length(); }
+            });
+        assertEquals(Integer.valueOf(4), length.join());
+    }
+
+    @Test public void failsTheMappedPromiseWhenTheFunctionThrows() {
+        Promise<String> mapped = Promise.of("x").map(new Function<String, String>() {
+                public String call(String s) { throw new IllegalStateException("bad"); }
+            });
+        mapped.then(listener);
+        assertEquals("failed bad", heard.get(0));
+    }
+
+    @Test(expected=IllegalStateException.class) public void rethrowsTheFailureWhenJoined() {
+        Promise.failed(new IllegalStateException()).join();
+    }
+
+    @Test public void givesUpJoiningAfterTheTimeout() {
+        try {
+            new Promise<String>().join(1, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("Gave up waiting"));
+        }
+    }
+
+    @Test public void wrapsTheFailureWhenGot() throws InterruptedException {
+        RuntimeException failure = new RuntimeException();
+        try {
+            Promise.failed(failure).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test public void waitsForAValueFromAnotherThread() throws Exception {
+        final Promise<String> promise = new Promise<String>();
+        new Thread() {
+            public void run() { promise.succeed("later"); }
+        }.start();
+        assertEquals("later", promise.get(5, TimeUnit.SECONDS));
+        assertTrue(promise.isDone());
+    }
+
+    @Test(expected=TimeoutException.class) public void timesOut() throws Exception {
+        new Promise<String>().get(1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test public void saysWhenTheRequestStartsThroughMappedPromises() {
+        Promise<String> promise = new Promise<String>();
+        promise.map(new Function<String, String>() {
+                public String call(String value) { return value; }
+            }).whenStarted(new Runnable() {
+                    public void run() { heard.add("started"); }
+                });
+        assertTrue(heard.isEmpty());
+        promise.start();
+        assertEquals("started", heard.get(0));
+    }
+
+    @Test public void neverSaysAPromiseCompletedWithoutStartingHasStarted() {
+        Promise<String> promise = Promise.of("value");
+        promise.whenStarted(new Runnable() {
+                public void run() { heard.add("started"); }
+            });
+        assertTrue(heard.isEmpty());
+    }
+}
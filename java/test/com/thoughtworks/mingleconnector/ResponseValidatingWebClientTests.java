@@ -76,4 +76,14 @@ public class ResponseValidatingWebClientTests {
         }
 
     }
+
+    @Test public void failsAsynchronousPostsWithErrorResponses() {
+        wrapped = new CannedStatusWeb(422);
+        final Holder<RuntimeException> failure = new Holder<RuntimeException>(null);
+        client().postAsync("a-url", null).then(new Promise.Callback<Web.Response>() {
+                public void succeeded(Web.Response response) {}
+                public void failed(RuntimeException e) { failure.value = e; }
+            });
+        assertTrue(failure.value.getMessage().contains("422"));
+    }
 }
@@ -0,0 +1,81 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class RingBufferTests {
+    @Test public void roundsItsCapacityUpToAPowerOfTwo() {
+        assertEquals(8, new RingBuffer<String>(5).capacity());
+        assertEquals(8, new RingBuffer<String>(8).capacity());
+        assertEquals(2, new RingBuffer<String>(0).capacity());
+    }
+
+    @Test public void returnsItemsInTheOrderTheyWereOffered() {
+        RingBuffer<String> buffer = new RingBuffer<String>(4);
+        for (int round = 0; round < 3; round++) {
+            assertTrue(buffer.offer("one"));
+            assertTrue(buffer.offer("two"));
+            assertEquals("one", buffer.poll());
+            assertEquals("two", buffer.poll());
+            assertNull(buffer.poll());
+        }
+    }
+
+    @Test public void refusesItemsWhenFull() {
+        RingBuffer<String> buffer = new RingBuffer<String>(2);
+        assertTrue(buffer.offer("one"));
+        assertTrue(buffer.offer("two"));
+        assertFalse(buffer.offer("three"));
+        assertEquals(2, buffer.size());
+        assertEquals("one", buffer.poll());
+        assertTrue(buffer.offer("three"));
+    }
+
+    @Test public void deliversEveryItemOnceWhenManyThreadsOffer() throws InterruptedException {
+        final RingBuffer<Integer> buffer = new RingBuffer<Integer>(64);
+        final int threads = 4, each = 10000;
+        List<Thread> offering = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int first = t * each;
+            Thread thread = new Thread() {
+                    public void run() {
+                        for (int i = first; i < first + each; i++) {
+                            while (!buffer.offer(i)) Thread.yield();
+                        }
+                    }
+                };
+            offering.add(thread);
+            thread.start();
+        }
+        Set<Integer> received = new HashSet<Integer>();
+        while (received.size() < threads * each) {
+            Integer item = buffer.poll();
+            if (item == null) {
+                Thread.yield();
+            } else {
+                assertTrue("received " + item + " twice", received.add(item));
+            }
+        }
+        for (Thread thread : offering) thread.join();
+        assertNull(buffer.poll());
+    }
+}
@@ -27,7 +27,16 @@ public class SimpleProjectMapTests {
                     put("jira-project", "mingle-project");
                 }});
         stub(mingle.project("mingle-project")).toReturn(project);
-        assertSame(new SimpleProjectMap(map, mingle).get("jira-project"), project);
+        assertEquals(Arrays.asList(project), new SimpleProjectMap(map, mingle).get("jira-project"));
+    }
+
+    @Test public void asksMingleForEachOfSeveralMappedProjects() {
+        Mingle mingle = mock(Mingle.class);
+        Mingle.Project web = mock(Mingle.Project.class), mobile = mock(Mingle.Project.class);
+        stub(mingle.project("web")).toReturn(web);
+        stub(mingle.project("mobile")).toReturn(mobile);
+        assertEquals(Arrays.asList(web, mobile),
+                     new SimpleProjectMap(Mapping.parse("SUP=>web | mobile"), mingle).get("sup"));
     }
 
     @Test(expected=IllegalArgumentException.class) public void whenAskedForAProjectThatDoesntExist() {
@@ -119,6 +119,9 @@ public class TestSupport {
         public String url() { return url; }
         public String project() { return project; }
         public void mingleUrl(String url) { mingleUrl = url; }
+        public void addMingleUrl(String urls) {
+            mingleUrl = mingleUrl == null ? urls : mingleUrl + " " + urls;
+        }
 
         private Date parseDate(String date) {
             try {
@@ -129,7 +132,7 @@ public class TestSupport {
         }
     }
 
-    public static class StubWeb implements Web {
+    public static class StubWeb extends Web.Blocking {
         private String location;
 
         public Response post(String url, List params) {
@@ -141,18 +144,25 @@ public class TestSupport {
             };
         }
 
+        public String get(String url) {
+            return "";
+        }
+
         public StubWeb withLocation(String location) {
             this.location = location;
             return this;
         }
     }
 
-    public static class CannedResponseWeb implements Web {
+    public static class CannedResponseWeb extends Web.Blocking {
         private final Response response;
         public CannedResponseWeb(Response response) { this.response = response; }
         public Response post(String url, List params) {
             return response;
         }
+        public String get(String url) {
+            return "";
+        }
     }
 
     public static class CannedStatusWeb extends CannedResponseWeb {
@@ -0,0 +1,88 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import static org.mockito.Mockito.*;
+
+public class TraceTests {
+    private final Logger logger = mock(Logger.class);
+
+    @After public void leaveTraces() {
+        Trace.resume(null);
+    }
+
+    @Test public void givesTheCurrentTraceBackWhenResumed() {
+        Trace outer = new Trace("outer", null), inner = new Trace("inner", null);
+        Trace none = outer.enter();
+        Trace previous = inner.enter();
+        assertSame(inner, Trace.current());
+        Trace.resume(previous);
+        assertSame(outer, Trace.current());
+        Trace.resume(none);
+        assertNull(Trace.current());
+    }
+
+    @Test public void carriesTheCurrentTraceToWorkRunElsewhere() throws InterruptedException {
+        final Holder<Trace> received = new Holder<Trace>(null);
+        Trace trace = new Trace("the-id", null);
+        Trace previous = trace.enter();
+        Runnable work = Trace.carry(new Runnable() {
+                public void run() { received.value = Trace.current(); }
+            });
+        Trace.resume(previous);
+        Thread thread = new Thread(work);
+        thread.start();
+        thread.join();
+        assertSame(trace, received.value);
+    }
+
+    @Test public void logsTheStagesOfSampledTraces() {
+        Metrics metrics = new Metrics();
+        Trace previous = new Trace("the-id", logger).enter();
+        try {
+            metrics.since(Metrics.Stage.MINGLE_POST, System.nanoTime());
+        } finally {
+            Trace.resume(previous);
+        }
+        verify(logger).span(eq("the-id"), eq(Metrics.Stage.MINGLE_POST), anyLong());
+    }
+
+    @Test public void samplesOnlyTheGivenPercentage() {
+        assertFalse(Trace.start(logger, 0).sampled());
+        assertTrue(Trace.start(logger, 100).sampled());
+        assertFalse(Trace.start(logger, 100).id().equals(Trace.start(logger, 100).id()));
+    }
+
+    @Test public void givesEveryTraceADistinctIdAcrossThreads() throws InterruptedException {
+        final Set<String> ids = Collections.synchronizedSet(new HashSet<String>());
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                    public void run() {
+                        for (int j = 0; j < 1000; j++) ids.add(Trace.start(logger, 0).id());
+                    }
+                };
+            threads[i].start();
+        }
+        for (Thread thread : threads) thread.join();
+        assertEquals(4000, ids.size());
+    }
+}
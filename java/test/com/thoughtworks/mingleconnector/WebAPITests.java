@@ -64,4 +64,28 @@ public class WebAPITests {
         String url = api().createCard(null, null, null, null, null, new HashMap());
         assertThat(url, equalTo("http://s/projects/p/cards/81"));
     }
+
+    @Test public void createsCardsAsynchronously() {
+        web = new StubWeb().withLocation("http://s/api/v2/projects/p/cards/81.xml");
+        Promise<String> url = api().createCardAsync("s", "p", null, null, null, new HashMap());
+        assertThat(url.join(), equalTo("http://s/projects/p/cards/81"));
+    }
+
+    @Test(expected=RuntimeException.class) public void complainsAsynchronouslyAboutUnexpectedLocations() {
+        web = new StubWeb().withLocation("http://s/projects/p/cards/81");
+        api().createCardAsync(null, null, null, null, null, new HashMap()).join();
+    }
+
+    @Test(expected=RuntimeException.class) public void complainsAboutUnexpectedLocations() {
+        web = new StubWeb().withLocation("http://s/projects/p/cards/81");
+        api().createCard(null, null, null, null, null, new HashMap());
+    }
+
+    @Test public void showsOnlyTheStartOfLongParameterValues() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1000; i++) value.append('x');
+        String shown = new Web.Param("card[description]", value.toString()).toString();
+        assertTrue(shown, shown.endsWith("... 800 more characters)"));
+        assertTrue(shown.length() < 300);
+    }
 }
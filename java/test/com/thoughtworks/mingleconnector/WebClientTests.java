@@ -0,0 +1,114 @@
+// Copyright 2011 ThoughtWorks, Inc.
+// 
+// Licensed under the Apache License, Version 2.0 (the "License"); you
+// may not use this file except in compliance with the License. You may
+// obtain a copy of the License at
+// 
+// http://www.apache.org/licenses/LICENSE-2.0
+// 
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+// implied. See the License for the specific language governing
+// permissions and limitations under the License.
+// 
+package com.thoughtworks.mingleconnector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+public class WebClientTests {
+    private final List<Integer> ports = Collections.synchronizedList(new ArrayList<Integer>());
+    private final List<String> authorizations = Collections.synchronizedList(new ArrayList<String>());
+    private HttpServer server;
+    private WebClient client;
+
+    @Before public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+                public void handle(HttpExchange exchange) throws IOException {
+                    InputStream body = exchange.getRequestBody();
+                    byte[] buffer = new byte[4096];
+                    while (body.read(buffer) >= 0);
+                    body.close();
+                    ports.add(exchange.getRemoteAddress().getPort());
+                    if (exchange.getRequestURI().getPath().endsWith("/slow.xml")) pause(500);
+                    authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+                    exchange.getResponseHeaders().set("Location", "http://mingle/cards/1.xml");
+                    exchange.sendResponseHeaders(201, -1);
+                    exchange.close();
+                }
+            });
+        server.start();
+        client = new WebClient("user", "password");
+    }
+
+    @After public void stop() {
+        client.shutdown();
+        server.stop(0);
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/api/v2/projects/p/cards.xml";
+    }
+
+    private List<Web.Param> params() {
+        List<Web.Param> params = new ArrayList<Web.Param>();
+        params.add(new Web.Param("card[name]", "the name"));
+        return params;
+    }
+
+    @Test public void reusesOneConnectionForPostsOneAfterAnother() {
+        for (int i = 0; i < 3; i++) assertEquals(201, client.post(url(), params()).statusCode());
+        assertEquals(3, ports.size());
+        assertEquals(1, new HashSet<Integer>(ports).size());
+    }
+
+    @Test public void sendsCredentialsWithEveryRequestWithoutBeingAsked() {
+        client.post(url(), params());
+        client.post(url(), params());
+        assertEquals(2, authorizations.size());
+        for (String authorization : authorizations) {
+            assertEquals("Basic dXNlcjpwYXNzd29yZA==", authorization);
+        }
+    }
+
+    @Test public void failsLocallyWhenNoConnectionFreesUpInTime() throws InterruptedException {
+        client.shutdown();
+        client = new WebClient("user", "password", 1, 1, 60 * 1000, 100, 5000, 0, false);
+        Thread slow = new Thread() {
+                public void run() {
+                    client.post(url().replace("cards.xml", "slow.xml"), params());
+                }
+            };
+        slow.start();
+        while (ports.isEmpty()) Thread.sleep(10);
+        try {
+            client.post(url(), params());
+            fail();
+        } catch (WebClient.LocalLimitException expected) {
+        } finally {
+            slow.join();
+        }
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
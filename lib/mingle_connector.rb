@@ -31,6 +31,8 @@ module MingleConnector
                    :spec=>[{:name=>:identifier},
                            {:name=>:status_properties, :default=>{'Status'=>'Done'}}]}],
                 {:name=> :jira_issue_key_property, :default=>'JIRA issue'},
+                {:name=>:compress_requests, :optional=>true},
+                {:name=>:jira_correlation_property, :optional=>true},
                ],
       :logging=>[{:name=>:filename, :default=>'mingle-jira-connector.log'},
                  {:name=>:level, :default=>'WARN'},
@@ -42,8 +42,10 @@ module MingleConnector
       issue_key = card.issue_key
       begin
         if issue_key
+          correlation_id = card.correlation_id
+          correlation_id and @logger.correlated_card(e.project, e.mingle_card_number, correlation_id)
           @jira.update_development_status(issue_key, e.development_status)
-          e.development_complete? and @jira.handback(issue_key)
+          e.development_complete? and handback(issue_key, correlation_id)
         else
           @logger.issue_key_missing(e.project, e.mingle_card_number)
         end
@@ -55,5 +57,10 @@ module MingleConnector
       end
       e.handled
     end
+
+    def handback issue_key, correlation_id
+      @jira.handback(issue_key)
+      @logger.handed_back(issue_key, correlation_id)
+    end
   end
 end
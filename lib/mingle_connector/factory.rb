@@ -59,7 +59,7 @@ module MingleConnector
     end
 
     def mingle
-      @c.add(:web_client, WebClient)
+      @c.add(:web_client) { WebClient.new(:compress_requests=>@c[:config].section(:mingle)[:compress_requests]) }
       @c.decorate(:web_client) { AuthenticatingWebClient.new(@c[:config].section(:mingle)[:user],
                                                              @c[:config].section(:mingle)[:password]) }
       @c.decorate(:web_client) { LoggingWebClient.new(@c[:logger]) }
@@ -125,6 +125,15 @@ module MingleConnector
       @logger.error("Mingle card #{project}/##{number} could not be found.")
     end
 
+    def correlated_card project, card_number, correlation_id
+      @logger.info("[#{correlation_id}] Processing Mingle card #{project}/##{card_number}.")
+    end
+
+    def handed_back issue_key, correlation_id
+      prefix = correlation_id ? "[#{correlation_id}] " : ''
+      @logger.info("#{prefix}Handed JIRA issue #{issue_key} back from Mingle.")
+    end
+
     def issue_key_missing project, card_number
       @logger.info("Event ignored as there was no JIRA issue key in Mingle card #{project}/##{card_number}.")
     end
@@ -20,13 +20,14 @@ module MingleConnector
     def initialize(web_client, config, feed_reader)
       @web_client = web_client; @config = config
       @jira_issue_key_prop = config[:jira_issue_key_property]
+      @correlation_prop = config[:jira_correlation_property]
       @feed_reader = feed_reader
     end
 
     def get_card number, project
       begin
         resp = @web_client.get url_for(card(number), project)
-        Card.new(resp.body, @jira_issue_key_prop)
+        Card.new(resp.body, @jira_issue_key_prop, @correlation_prop)
       rescue HttpNotFoundError
         nil
       end
@@ -68,15 +69,27 @@ module MingleConnector
   end
 
   class Card
-    def initialize(xml, issue_prop)
+    def initialize(xml, issue_prop, correlation_prop=nil)
       @details = Hash.from_xml(xml)['card']
       @issue_prop = issue_prop
+      @correlation_prop = correlation_prop
     end
 
     def issue_key
+      value_of @issue_prop
+    end
+
+    # The correlation ID the connector gave the card when it created it, if it
+    # was told which property to keep it in.
+    def correlation_id
+      @correlation_prop and value_of @correlation_prop
+    end
+
+    private
+    def value_of name
       property = @details['properties'].
         find_all { |prop| prop['name'] }.
-        find { |prop| prop['name'].downcase==@issue_prop.downcase }
+        find { |prop| prop['name'].downcase==name.downcase }
       property && property['value']
     end
   end
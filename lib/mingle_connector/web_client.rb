@@ -18,16 +18,28 @@ require File.dirname(__FILE__) + '/../../vendor/jars/commons-codec-1.2.jar'
 require File.dirname(__FILE__)+'/utils'
 
 module MingleConnector
+  # Responses are always asked for gzipped. Request bodies are only compressed
+  # when :compress_requests is set, as not every server in front of Mingle
+  # accepts them.
   class WebClient
     include Utils
-    def initialize()
+    GZIP = 'gzip'
+    FORM = 'application/x-www-form-urlencoded; charset=UTF-8'
+
+    def initialize(options={})
       turn_off_logging_for('org.apache.commons.httpclient', 'httpclient')
       @client = org.apache.commons.httpclient.HttpClient.new
+      @compress_requests = options[:compress_requests]
     end
 
     def post url, params
       request = org.apache.commons.httpclient.methods.PostMethod.new(url)
-      request.set_request_body(convert_params(params))
+      if @compress_requests
+        request.set_request_entity(compressed(convert_params(params)))
+        request.set_request_header('Content-Encoding', GZIP)
+      else
+        request.set_request_body(convert_params(params))
+      end
       execute(request)
       response_from request
     end
@@ -52,9 +64,19 @@ module MingleConnector
 
     private
     def execute request
+      request.set_request_header('Accept-Encoding', GZIP)
       @client.execute_method(request)
     end
 
+    def compressed params
+      bytes = java.io.ByteArrayOutputStream.new
+      gzip = java.util.zip.GZIPOutputStream.new(bytes)
+      form = org.apache.commons.httpclient.util.EncodingUtil.form_url_encode(params, 'UTF-8')
+      gzip.write(form.to_java_bytes)
+      gzip.close
+      org.apache.commons.httpclient.methods.ByteArrayRequestEntity.new(bytes.to_byte_array, FORM)
+    end
+
     def convert_params params
       params.map { |k, v| org.apache.commons.httpclient.NameValuePair.new k, v }.to_java(org.apache.commons.httpclient.NameValuePair)
     end
@@ -62,7 +84,26 @@ module MingleConnector
     def response_from request
       headers = request.get_response_headers.
         inject({}) {|acc, header| acc.merge header.get_name=>header.get_value }
-      Response.new request.get_status_code, request.get_response_body_as_string, headers
+      Response.new request.get_status_code, body_of(request), headers
+    end
+
+    # Decompresses the body as it is read from the connection, rather than
+    # reading all of it before decompressing it.
+    def body_of request
+      stream = request.get_response_body_as_stream or return ''
+      encoding = request.get_response_header('Content-Encoding')
+      if encoding && encoding.get_value.downcase.include?(GZIP)
+        stream = java.util.zip.GZIPInputStream.new(stream)
+      end
+      reader = java.io.InputStreamReader.new(stream, request.get_response_char_set)
+      body = java.lang.StringBuilder.new
+      buffer = Java::char[4096].new
+      while (read = reader.read(buffer)) >= 0
+        body.append(buffer, 0, read)
+      end
+      body.to_string
+    ensure
+      stream.close if stream
     end
   end
 
@@ -21,7 +21,7 @@ describe EventProcessor do
     @event_processor ||= EventProcessor.new(mingle, jira, logger)
   end
   def issue_key() @issue_key ||= '' end
-  def mingle() @mingle ||= StubMingle.new(:issue_key=>issue_key) end
+  def mingle() @mingle ||= StubMingle.new(:issue_key=>issue_key, :correlation_id=>@correlation_id) end
   def logger() @logger ||= StubLogger.new end
   def jira() @jira ||= StubJira.new end
   def a_url() 'http://api/v2/something.xml' end
@@ -92,6 +92,14 @@ describe EventProcessor do
         end
       end
 
+      it "logs the handback with the card's correlation ID" do
+        @development_status = 'Done'
+        @issue_key = 'the-issue-key'
+        @correlation_id = 'the-id'
+        logger.should_receive(:handed_back).with('the-issue-key', 'the-id')
+        event_processor.process event
+      end
+
       it "doesn't mark the issue as development complete if the card is not 'Done'" do
         @development_status = 'In Progress'
         jira.should_not_receive(:handback)
@@ -111,6 +119,13 @@ describe EventProcessor do
       end
    end
 
+    it "logs the correlation ID the card was created with" do
+      @issue_key = 'the-issue-key'
+      @correlation_id = 'the-id'
+      logger.should_receive(:correlated_card).with('the-project', 45, 'the-id')
+      event_processor.process mingle_event_with(:project=>'the-project', :card_number=>45)
+    end
+
     it "tells logger that is processing event" do
       logger.should_receive(:processing_event).with event
       event_processor.process event
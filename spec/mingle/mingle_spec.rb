@@ -23,7 +23,8 @@ describe Mingle do
 
   def config()
     {:project=>@project, :baseurl=>@baseurl,
-      :jira_issue_key_property=>@jira_issue_key_prop, :story_type => @story_type_prop}
+      :jira_issue_key_property=>@jira_issue_key_prop, :story_type => @story_type_prop,
+      :jira_correlation_property=>@correlation_prop}
   end
 
   def mingle()
@@ -56,6 +57,32 @@ XML
       card.issue_key.should == 'MITP-14'
     end
 
+    describe "correlation ID" do
+      def card_xml
+        <<-XML
+<card>
+  <properties type="array">
+    <property>
+      <name>JIRA correlation</name>
+      <value>the-id</value>
+    </property>
+  </properties>
+</card>
+XML
+      end
+
+      it "is read from the configured property" do
+        @correlation_prop = 'jira correlation'
+        @web.stub!(:get).and_return(response :body => card_xml)
+        mingle.get_card(2, nil).correlation_id.should == 'the-id'
+      end
+
+      it "is nil when no property is configured" do
+        @web.stub!(:get).and_return(response :body => card_xml)
+        mingle.get_card(2, nil).correlation_id.should be_nil
+      end
+    end
+
     context "card cannot be found" do
       before { @web = NotFoundResponseWebClient.new }
       it "returns nil" do
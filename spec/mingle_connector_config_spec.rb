@@ -35,6 +35,16 @@ describe "the config spec" do
         should have_default 'JIRA issue'
     end
 
+    it "makes compress_requests optional" do
+      MingleConnector::config[:mingle].
+        find { |e| e[:name]==:compress_requests unless e.is_a? Array }[:optional].should be_true
+    end
+
+    it "makes jira_correlation_property optional" do
+      MingleConnector::config[:mingle].
+        find { |e| e[:name]==:jira_correlation_property unless e.is_a? Array }[:optional].should be_true
+    end
+
     describe "projects" do
       it "has an alias 'project'" do
         MingleConnector::config[:mingle].find { |e| e.is_a? Array and e.first[:name]==:projects}.
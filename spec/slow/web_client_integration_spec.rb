@@ -76,12 +76,32 @@ describe WebClient do
       response = @web.get 'http://localhost:3080'
       response.headers['foo'].should =='bar'
     end
+    it "asks for a gzipped response" do
+      @web.get 'http://localhost:3080'
+      @server.last_accept_encoding.should =='gzip'
+    end
+    it "decompresses a gzipped response" do
+      response = @web.get 'http://localhost:3080/gzip'
+      response.body.should =='the response'
+    end
+  end
+
+  describe 'post with compressed requests' do
+    before { @web = WebClient.new :compress_requests=>true }
+    it "gzips the parameters" do
+      @web.post 'http://localhost:3080/', 'foo'=>'bar baz'
+      @server.last_body.should =='foo=bar+baz'
+    end
+    it "returns the response body" do
+      response = @web.post 'http://localhost:3080/gzip', 'foo'=>'bar'
+      response.body.should =='the response'
+    end
   end
 end
 
 class TestHttpServer < HttpServer
   def last() @last ||= {} end
-  attr_accessor :last_params, :last_credentials
+  attr_accessor :last_params, :last_credentials, :last_accept_encoding, :last_body
 
   def handler
     Handler.new self
@@ -93,12 +113,21 @@ class TestHttpServer < HttpServer
     end
     def handle request, response
       begin
-        response.getWriter().print 'the response'
         response.setHeader 'foo', 'bar'
+        if request.getPathInfo == '/gzip'
+          gzip_response response
+        else
+          response.getWriter().print 'the response'
+        end
 
         @server.last[request.getMethod] = request.getPathInfo
-        @server.last_params = request.getParameterMap.
-          inject({}) { |acc, (key, value)| acc.merge key=>value.first }
+        @server.last_accept_encoding = request.getHeader 'Accept-Encoding'
+        if request.getHeader('Content-Encoding') == 'gzip'
+          @server.last_body = read_gzipped request
+        else
+          @server.last_params = request.getParameterMap.
+            inject({}) { |acc, (key, value)| acc.merge key=>value.first }
+        end
 
         if request.getPathInfo == '/auth'
           do_auth request, response
@@ -110,6 +139,23 @@ class TestHttpServer < HttpServer
     end
 
     private
+    def gzip_response response
+      response.setHeader 'Content-Encoding', 'gzip'
+      gzip = java.util.zip.GZIPOutputStream.new(response.getOutputStream)
+      gzip.write 'the response'.to_java_bytes
+      gzip.finish
+    end
+
+    def read_gzipped request
+      stream = java.util.zip.GZIPInputStream.new(request.getInputStream)
+      body = java.io.ByteArrayOutputStream.new
+      buffer = Java::byte[1024].new
+      while (read = stream.read(buffer)) >= 0
+        body.write(buffer, 0, read)
+      end
+      body.to_string('US-ASCII')
+    end
+
     def do_auth request, response
       credentials = request.
         getHeader org.eclipse.jetty.http.HttpHeaders::AUTHORIZATION
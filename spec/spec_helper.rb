@@ -44,6 +44,7 @@ class StubMingle
 
   def initialize opts={}
     @issue_key = opts[:issue_key]
+    @correlation_id = opts[:correlation_id]
   end
 
   def with_feed feed
@@ -57,7 +58,7 @@ class StubMingle
   end
 
   def get_card card_number, project
-    @card or StubCard.new @issue_key
+    @card or StubCard.new @issue_key, @correlation_id
   end
 
   def card_with_issue_key issue_key
@@ -70,8 +71,10 @@ class StubMingle
 end
 
 class StubCard
-  attr_reader :issue_key
-  def initialize(issue_key) @issue_key=issue_key end
+  attr_reader :issue_key, :correlation_id
+  def initialize(issue_key, correlation_id=nil)
+    @issue_key=issue_key; @correlation_id=correlation_id
+  end
 end
 
 class StubLogger